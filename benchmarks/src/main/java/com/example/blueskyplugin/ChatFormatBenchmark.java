@@ -0,0 +1,51 @@
+package com.example.blueskyplugin;
+
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// タイムライン1ページ分 (50件) をチャット用に整形する
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatFormatBenchmark {
+    private List<Post> posts;
+    private final PostRenderer renderer = new PostRenderer(140);
+
+    @Setup
+    public void setUp() throws IOException {
+        posts = FeedDecoder.decodeFeed(new ByteArrayInputStream(Payloads.load("getTimeline.json"))).posts();
+    }
+
+    // プラグインで使っている、ページ全体を1つのComponentにする方法
+    @Benchmark
+    public Component renderPage() {
+        return renderer.render("=== Bluesky Timeline ===", posts, "Page 1", "Click to open this post on Bluesky");
+    }
+
+    // 比較用: 投稿ごとに§カラーコードの文字列を連結する (以前の方法)
+    @Benchmark
+    public List<String> legacyLines() {
+        List<String> lines = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            lines.add("§6" + post.authorName() + " §b(@" + post.handle() + ")§r: " + post.text());
+        }
+        return lines;
+    }
+}
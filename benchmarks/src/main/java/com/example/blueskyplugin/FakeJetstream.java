@@ -0,0 +1,201 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 試験用のローカルJetstream (wss://jetstream... の代わり)
+// 最小限のWebSocketサーバーで、publishPost で送ったイベントを接続中の全クライアントに流す
+public class FakeJetstream implements AutoCloseable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket server;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final List<String> requestedPaths = new CopyOnWriteArrayList<>();
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong rkeys = new AtomicLong();
+
+    public FakeJetstream() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.ofPlatform().daemon().name("fake-jetstream").start(this::acceptLoop);
+    }
+
+    // live.endpoint に設定するURL
+    public String url() {
+        return "ws://127.0.0.1:" + server.getLocalPort() + "/subscribe";
+    }
+
+    public int clientCount() {
+        return clients.size();
+    }
+
+    // 接続時に要求されたパスとクエリ (wantedCollections や cursor の確認用)
+    public List<String> requestedPaths() {
+        return List.copyOf(requestedPaths);
+    }
+
+    // 投稿の作成イベントを流す (Jetstreamと同じく did と time_us を先頭に書く)
+    public void publishPost(String did, String text) {
+        JSONObject record = new JSONObject()
+                .put("$type", "app.bsky.feed.post")
+                .put("text", text)
+                .put("createdAt", Instant.now().toString());
+        String commit = new JSONObject()
+                .put("rev", "3l" + rkeys.incrementAndGet())
+                .put("operation", "create")
+                .put("collection", "app.bsky.feed.post")
+                .put("rkey", "3lfake" + rkeys.get())
+                .put("record", record)
+                .put("cid", "bafyreifake" + rkeys.get())
+                .toString();
+        publish("{\"did\":" + JSONObject.quote(did) + ",\"time_us\":" + clock.incrementAndGet()
+                + ",\"kind\":\"commit\",\"commit\":" + commit + "}");
+    }
+
+    public void publish(String message) {
+        byte[] frame = textFrame(message.getBytes(StandardCharsets.UTF_8));
+        for (Socket client : clients) {
+            try {
+                OutputStream out = client.getOutputStream();
+                synchronized (client) {
+                    out.write(frame);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                drop(client);
+            }
+        }
+    }
+
+    // 接続中のクライアントを切断する (再接続の試験用)
+    public void disconnectAll() {
+        clients.forEach(this::drop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        disconnectAll();
+        server.close();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                Thread.ofVirtual().start(() -> serve(client));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            InputStream in = client.getInputStream();
+            String requestLine = null;
+            String key = null;
+            StringBuilder line = new StringBuilder();
+            int b;
+            // HTTPのハンドシェイクを空行まで読む
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    String header = line.toString().trim();
+                    line.setLength(0);
+                    if (header.isEmpty()) {
+                        break;
+                    }
+                    if (requestLine == null) {
+                        requestLine = header;
+                    } else if (header.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = header.substring(header.indexOf(':') + 1).trim();
+                    }
+                } else {
+                    line.append((char) b);
+                }
+            }
+            if (requestLine == null || key == null) {
+                client.close();
+                return;
+            }
+            requestedPaths.add(requestLine.split(" ")[1]);
+            String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n";
+            client.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+            client.getOutputStream().flush();
+            clients.add(client);
+            // クライアントからのフレームは読み捨て、closeが来たら切断する
+            while (true) {
+                int first = in.read();
+                if (first < 0 || (first & 0x0F) == 0x8) {
+                    break;
+                }
+                long length = in.read() & 0x7F;
+                if (length == 126) {
+                    length = (in.read() << 8) | in.read();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | in.read();
+                    }
+                }
+                in.skipNBytes(4 + length);
+            }
+        } catch (IOException e) {
+            // 切断
+        } finally {
+            drop(client);
+        }
+    }
+
+    private void drop(Socket client) {
+        clients.remove(client);
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // 既に閉じている
+        }
+    }
+
+    private static String accept(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // サーバーからのフレームはマスクしない
+    private static byte[] textFrame(byte[] payload) {
+        int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+        byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) 0x81;
+        if (payload.length < 126) {
+            frame[1] = (byte) payload.length;
+        } else if (payload.length < 65536) {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) payload.length >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.blueskyplugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// 負荷試験用のローカルPDS (https://bsky.social の代わり)
+// プラグインが使うXRPCエンドポイントを payloads/ のフィクスチャで返し、遅延・5xx・429を混ぜられる
+public class FakePds implements AutoCloseable {
+    // 注入する障害 (rateは0〜1の確率)
+    public record Faults(long latencyMillis, long jitterMillis, double errorRate, double rateLimitRate) {
+        public static final Faults NONE = new Faults(0, 0, 0, 0);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long accessTtlSeconds;
+    private volatile Faults faults;
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder injectedRateLimits = new LongAdder();
+    private final AtomicLong records = new AtomicLong();
+    // 書き込まれたレコードのAT-URI
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+    private final Map<String, byte[]> fixtures = new ConcurrentHashMap<>();
+
+    public FakePds(Faults faults, long accessTtlSeconds) throws IOException {
+        this.faults = faults;
+        this.accessTtlSeconds = accessTtlSeconds;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/xrpc/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // service-url に設定するURL
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setFaults(Faults faults) {
+        this.faults = faults;
+    }
+
+    // エンドポイントごとの受信数
+    public Map<String, Long> requestCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        requests.forEach((nsid, count) -> result.put(nsid, count.sum()));
+        return result;
+    }
+
+    public long injectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    public long injectedRateLimits() {
+        return injectedRateLimits.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String nsid = exchange.getRequestURI().getPath().substring("/xrpc/".length());
+            requests.computeIfAbsent(nsid, k -> new LongAdder()).increment();
+            byte[] requestBody;
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody = in.readAllBytes();
+            }
+
+            Faults current = faults;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = current.latencyMillis() + (current.jitterMillis() > 0 ? random.nextLong(current.jitterMillis() + 1) : 0);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (random.nextDouble() < current.rateLimitRate()) {
+                injectedRateLimits.increment();
+                exchange.getResponseHeaders().add("ratelimit-remaining", "0");
+                exchange.getResponseHeaders().add("ratelimit-reset", String.valueOf(System.currentTimeMillis() / 1000 + 1));
+                sendError(exchange, 429, "RateLimitExceeded");
+                return;
+            }
+            if (random.nextDouble() < current.errorRate()) {
+                injectedErrors.increment();
+                sendError(exchange, 500, "InternalServerError");
+                return;
+            }
+
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (!nsid.equals("com.atproto.server.createSession") && authorization == null) {
+                sendError(exchange, 401, "AuthMissing");
+                return;
+            }
+            Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+            switch (nsid) {
+                case "com.atproto.server.createSession" -> {
+                    JSONObject body = new JSONObject(new JSONTokener(new String(requestBody, StandardCharsets.UTF_8)));
+                    String handle = body.getString("identifier");
+                    sendJson(exchange, session(didOf(handle), handle));
+                }
+                case "com.atproto.server.refreshSession" -> {
+                    String did = subjectOf(authorization);
+                    sendJson(exchange, session(did, did.substring("did:plc:".length()) + ".bsky.social"));
+                }
+                case "com.atproto.identity.resolveHandle" -> sendJson(exchange,
+                        new JSONObject().put("did", didOf(params.getOrDefault("handle", ""))));
+                case "com.atproto.repo.createRecord" -> {
+                    JSONObject body = new JSONObject(new JSONTokener(new String(requestBody, StandardCharsets.UTF_8)));
+                    long n = records.incrementAndGet();
+                    String uri = "at://" + body.getString("repo") + "/" + body.getString("collection") + "/"
+                            + body.optString("rkey", "3l" + n);
+                    // 同じキーの2回目は本物と同じく断る
+                    if (!written.add(uri)) {
+                        sendError(exchange, 400, "InvalidRequest", "Record already exists: " + uri);
+                        return;
+                    }
+                    sendJson(exchange, new JSONObject().put("uri", uri).put("cid", "bafyreirecord" + n));
+                }
+                case "com.atproto.repo.uploadBlob" -> sendJson(exchange, new JSONObject().put("blob", new JSONObject()
+                        .put("$type", "blob")
+                        .put("ref", new JSONObject().put("$link", "bafkreiblob" + records.incrementAndGet()))
+                        .put("mimeType", exchange.getRequestHeaders().getFirst("Content-Type"))
+                        .put("size", requestBody.length)));
+                case "com.atproto.repo.applyWrites" -> {
+                    // 書き込みごとに1件の結果を返す
+                    JSONObject body = new JSONObject(new JSONTokener(new String(requestBody, StandardCharsets.UTF_8)));
+                    JSONArray results = new JSONArray();
+                    JSONArray writes = body.getJSONArray("writes");
+                    List<String> uris = new ArrayList<>();
+                    for (int i = 0; i < writes.length(); i++) {
+                        JSONObject write = writes.getJSONObject(i);
+                        uris.add("at://" + body.getString("repo") + "/" + write.getString("collection") + "/"
+                                + write.optString("rkey", "3l" + records.incrementAndGet()));
+                    }
+                    // まとめて書き込むので、1件でも既にあれば全体を断る
+                    for (String uri : uris) {
+                        if (written.contains(uri)) {
+                            sendError(exchange, 400, "InvalidRequest", "Record already exists: " + uri);
+                            return;
+                        }
+                    }
+                    written.addAll(uris);
+                    for (String uri : uris) {
+                        long n = records.incrementAndGet();
+                        results.put(new JSONObject()
+                                .put("$type", "com.atproto.repo.applyWrites#createResult")
+                                .put("uri", uri)
+                                .put("cid", "bafyreirecord" + n));
+                    }
+                    sendJson(exchange, new JSONObject().put("results", results));
+                }
+                case "app.bsky.actor.getProfile" -> send(exchange, 200, fixture("getProfile.json"));
+                case "app.bsky.actor.getProfiles" -> {
+                    // actors=... は繰り返し指定されるので、全部をそのままのハンドルで返す
+                    JSONArray profiles = new JSONArray();
+                    for (String actor : queryAll(exchange.getRequestURI().getRawQuery(), "actors")) {
+                        profiles.put(new JSONObject().put("did", didOf(actor)).put("handle", actor));
+                    }
+                    sendJson(exchange, new JSONObject().put("profiles", profiles));
+                }
+                case "app.bsky.actor.getPreferences" -> send(exchange, 200, fixture("getPreferences.json"));
+                // 確認のたびに1/4の確率で新しい通知が1件来ている
+                case "app.bsky.notification.getUnreadCount" -> sendJson(exchange,
+                        new JSONObject().put("count", random.nextInt(4) == 0 ? 1 : 0));
+                case "app.bsky.notification.listNotifications" -> sendJson(exchange, new JSONObject().put("notifications",
+                        new JSONArray().put(new JSONObject()
+                                .put("uri", "at://did:plc:fan/app.bsky.feed.like/3l" + records.incrementAndGet())
+                                .put("author", new JSONObject().put("did", "did:plc:fan").put("handle", "fan.bsky.social"))
+                                .put("reason", "like")
+                                .put("isRead", false)
+                                .put("indexedAt", Instant.now().toString()))));
+                // 誰でも did:plc:author0〜9 をフォローしている
+                case "app.bsky.graph.getFollows" -> {
+                    JSONArray follows = new JSONArray();
+                    for (int i = 0; i < 10; i++) {
+                        follows.put(new JSONObject().put("did", "did:plc:author" + i)
+                                .put("handle", "author" + i + ".bsky.social").put("displayName", "Author " + i));
+                    }
+                    sendJson(exchange, new JSONObject().put("follows", follows));
+                }
+                case "app.bsky.feed.getTimeline" -> send(exchange, 200, fixture("getTimeline.json"));
+                case "app.bsky.feed.getFeed" -> send(exchange, 200, fixture("getFeed.json"));
+                case "app.bsky.feed.getFeedGenerators" -> send(exchange, 200, fixture("getFeedGenerators.json"));
+                case "app.bsky.feed.getActorFeeds" -> send(exchange, 200, fixture("getActorFeeds.json"));
+                default -> sendError(exchange, 501, "MethodNotImplemented");
+            }
+        }
+    }
+
+    private JSONObject session(String did, String handle) {
+        long now = System.currentTimeMillis() / 1000;
+        return new JSONObject()
+                .put("did", did)
+                .put("handle", handle)
+                .put("accessJwt", jwt(did, "com.atproto.access", now + accessTtlSeconds))
+                .put("refreshJwt", jwt(did, "com.atproto.refresh", now + 90L * 24 * 3600));
+    }
+
+    // 署名は検証しないので形だけのJWT (プラグインはexpだけを読む)
+    private static String jwt(String did, String scope, long exp) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = encoder.encodeToString("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+        String payload = encoder.encodeToString(new JSONObject().put("scope", scope).put("sub", did)
+                .put("iat", System.currentTimeMillis() / 1000).put("exp", exp).toString().getBytes(StandardCharsets.UTF_8));
+        return header + "." + payload + ".fake-signature";
+    }
+
+    private static String subjectOf(String authorization) {
+        String token = authorization.substring(authorization.indexOf(' ') + 1);
+        String payload = token.split("\\.")[1];
+        return new JSONObject(new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8)).getString("sub");
+    }
+
+    private static String didOf(String handle) {
+        String name = handle.startsWith("@") ? handle.substring(1) : handle;
+        int dot = name.indexOf('.');
+        return "did:plc:" + (dot > 0 ? name.substring(0, dot) : name);
+    }
+
+    private byte[] fixture(String name) {
+        return fixtures.computeIfAbsent(name, Payloads::load);
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new TreeMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.putIfAbsent(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static List<String> queryAll(String rawQuery, String name) {
+        List<String> values = new ArrayList<>();
+        if (rawQuery == null) {
+            return values;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8).equals(name)) {
+                values.add(URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String error) throws IOException {
+        sendError(exchange, status, error, error);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String error, String message) throws IOException {
+        send(exchange, status, new JSONObject().put("error", error).put("message", message)
+                .toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendJson(HttpExchange exchange, JSONObject json) throws IOException {
+        send(exchange, 200, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.blueskyplugin;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Server;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+// 負荷試験用のBukkitサーバーの代わり (Server / Player / BukkitScheduler を動的プロキシで作る)
+// メインスレッドは20TPSで回し、1tickの中でプラグインの処理に使った時間を記録する
+public class FakeServer {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // メインスレッドで実行する予約済みの処理
+    private static final class SyncTask implements Comparable<SyncTask> {
+        private final Runnable task;
+        private final long period;
+        private final long sequence;
+        private long dueTick;
+        private volatile boolean cancelled;
+
+        private SyncTask(Runnable task, long dueTick, long period, long sequence) {
+            this.task = task;
+            this.dueTick = dueTick;
+            this.period = period;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(SyncTask other) {
+            int byTick = Long.compare(dueTick, other.dueTick);
+            return byTick != 0 ? byTick : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Logger logger = Logger.getLogger("FakeServer");
+    private final Server server;
+    private final Thread mainThread;
+    private final PriorityQueue<SyncTask> syncTasks = new PriorityQueue<>();
+    private final ScheduledExecutorService asyncPool = Executors.newScheduledThreadPool(4,
+            r -> Thread.ofPlatform().daemon().name("fake-async-", 0).unstarted(r));
+    private final Map<UUID, Player> players = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger taskIds = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile long currentTick;
+    private volatile PluginCommand command;
+
+    // メインスレッドの計測値
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong maxTickNanos = new AtomicLong();
+    private final AtomicLong overrunTicks = new AtomicLong();
+
+    public FakeServer() {
+        this.server = proxy(Server.class, this::handleServer);
+        this.mainThread = Thread.ofPlatform().name("Server thread").unstarted(this::tickLoop);
+        mainThread.start();
+    }
+
+    public Server server() {
+        return server;
+    }
+
+    // /bsky コマンドの登録 (getCommand("bsky") で返す)
+    public void registerCommand(Plugin plugin) {
+        command = new PluginCommand("bsky", plugin) {
+        };
+    }
+
+    public PluginCommand command() {
+        return command;
+    }
+
+    // オンラインのプレイヤーを追加する (送られたメッセージはlistenerに渡す)
+    public Player addPlayer(String name, Locale locale, Consumer<String> listener) {
+        UUID playerId = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+        Player player = proxy(Player.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> playerId;
+            case "getName" -> name;
+            case "isOnline" -> players.containsKey(playerId);
+            case "hasPermission" -> true;
+            case "locale" -> locale;
+            case "getLocale" -> locale.toString().toLowerCase(Locale.ROOT);
+            case "sendMessage" -> {
+                for (Object arg : args) {
+                    if (arg instanceof String[] lines) {
+                        for (String line : lines) {
+                            listener.accept(line);
+                        }
+                    } else if (arg instanceof String || arg instanceof Component) {
+                        listener.accept(String.valueOf(arg));
+                    }
+                }
+                yield null;
+            }
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> playerId.hashCode();
+            case "toString" -> "FakePlayer{" + name + "}";
+            default -> defaultValue(method);
+        });
+        players.put(playerId, player);
+        return player;
+    }
+
+    public void removePlayer(Player player) {
+        players.remove(player.getUniqueId());
+    }
+
+    // メインスレッドで実行する (コマンドの実行など)
+    public void runOnMainThread(Runnable task) {
+        schedule(task, 0, -1);
+    }
+
+    public void shutdown() {
+        running.set(false);
+        asyncPool.shutdownNow();
+        try {
+            mainThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long ticks() {
+        return ticks.get();
+    }
+
+    // プラグインの処理でメインスレッドを使った合計時間
+    public long busyNanos() {
+        return busyNanos.get();
+    }
+
+    public long maxTickNanos() {
+        return maxTickNanos.get();
+    }
+
+    // 処理が50msを超えてtickが遅れた回数
+    public long overrunTicks() {
+        return overrunTicks.get();
+    }
+
+    private void tickLoop() {
+        long next = System.nanoTime();
+        while (running.get()) {
+            long start = System.nanoTime();
+            currentTick++;
+            while (true) {
+                SyncTask due;
+                synchronized (syncTasks) {
+                    due = syncTasks.peek();
+                    if (due == null || due.dueTick > currentTick) {
+                        break;
+                    }
+                    syncTasks.poll();
+                }
+                if (due.cancelled) {
+                    continue;
+                }
+                try {
+                    due.task.run();
+                } catch (RuntimeException e) {
+                    logger.warning("メインスレッドの処理でエラーが発生しました: " + e);
+                }
+                if (due.period > 0 && !due.cancelled) {
+                    due.dueTick = currentTick + due.period;
+                    synchronized (syncTasks) {
+                        syncTasks.add(due);
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            ticks.incrementAndGet();
+            busyNanos.addAndGet(elapsed);
+            maxTickNanos.accumulateAndGet(elapsed, Math::max);
+            if (elapsed > TICK_NANOS) {
+                overrunTicks.incrementAndGet();
+            }
+            next += TICK_NANOS;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    private BukkitTask schedule(Runnable task, long delayTicks, long periodTicks) {
+        SyncTask syncTask = new SyncTask(task, currentTick + Math.max(1, delayTicks), periodTicks, sequence.incrementAndGet());
+        synchronized (syncTasks) {
+            syncTasks.add(syncTask);
+        }
+        return task(true, () -> syncTask.cancelled = true, () -> syncTask.cancelled);
+    }
+
+    private BukkitTask scheduleAsync(Runnable task, long delayTicks, long periodTicks) {
+        ScheduledFuture<?> future = periodTicks > 0
+                ? asyncPool.scheduleAtFixedRate(task, delayTicks * 50, periodTicks * 50, TimeUnit.MILLISECONDS)
+                : asyncPool.schedule(task, delayTicks * 50, TimeUnit.MILLISECONDS);
+        return task(false, () -> future.cancel(false), future::isCancelled);
+    }
+
+    private BukkitTask task(boolean sync, Runnable cancel, BooleanSupplier cancelled) {
+        int id = taskIds.incrementAndGet();
+        return proxy(BukkitTask.class, (proxy, method, args) -> switch (method.getName()) {
+            case "cancel" -> {
+                cancel.run();
+                yield null;
+            }
+            case "isCancelled" -> cancelled.getAsBoolean();
+            case "getTaskId" -> id;
+            case "isSync" -> sync;
+            default -> defaultValue(method);
+        });
+    }
+
+    private Object handleServer(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "getScheduler" -> scheduler;
+            case "getPluginManager" -> pluginManager;
+            case "getPlayer" -> args[0] instanceof UUID id ? players.get(id) : players.values().stream()
+                    .filter(player -> player.getName().equalsIgnoreCase((String) args[0])).findFirst().orElse(null);
+            case "getOnlinePlayers" -> List.copyOf(players.values());
+            case "isPrimaryThread" -> Thread.currentThread() == mainThread;
+            case "getPluginCommand" -> command;
+            case "getLogger" -> logger;
+            case "getName" -> "FakeServer";
+            case "getVersion", "getBukkitVersion", "getMinecraftVersion" -> "load-test";
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "FakeServer";
+            default -> defaultValue(method);
+        };
+    }
+
+    private final BukkitScheduler scheduler = proxy(BukkitScheduler.class, (proxy, method, args) -> switch (method.getName()) {
+        case "runTask" -> schedule((Runnable) args[1], 0, -1);
+        case "runTaskLater" -> schedule((Runnable) args[1], (long) args[2], -1);
+        case "runTaskTimer" -> schedule((Runnable) args[1], (long) args[2], (long) args[3]);
+        case "runTaskAsynchronously" -> scheduleAsync((Runnable) args[1], 0, -1);
+        case "runTaskLaterAsynchronously" -> scheduleAsync((Runnable) args[1], (long) args[2], -1);
+        case "runTaskTimerAsynchronously" -> scheduleAsync((Runnable) args[1], (long) args[2], (long) args[3]);
+        case "cancelTasks" -> null;
+        case "equals" -> proxy == args[0];
+        case "hashCode" -> System.identityHashCode(proxy);
+        case "toString" -> "FakeScheduler";
+        default -> throw new UnsupportedOperationException("FakeServer does not support " + method.getName());
+    });
+
+    // イベントは発火しないので登録だけ受け付ける
+    private final PluginManager pluginManager = proxy(PluginManager.class, (proxy, method, args) -> switch (method.getName()) {
+        case "equals" -> proxy == args[0];
+        case "hashCode" -> System.identityHashCode(proxy);
+        case "toString" -> "FakePluginManager";
+        default -> defaultValue(method);
+    });
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class || type == short.class || type == byte.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return List.of();
+        }
+        return null;
+    }
+}
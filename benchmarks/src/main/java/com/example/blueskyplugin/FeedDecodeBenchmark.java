@@ -0,0 +1,62 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// getTimeline / getFeed のレスポンスのデコード
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeedDecodeBenchmark {
+    @Param({"getTimeline.json", "getFeed.json"})
+    public String payload;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = Payloads.load(payload);
+    }
+
+    // プラグインで使っているストリーミングデコーダー
+    @Benchmark
+    public FeedDecoder.FeedPage pullDecoder() throws IOException {
+        return FeedDecoder.decodeFeed(new ByteArrayInputStream(body));
+    }
+
+    // 比較用: org.jsonでレスポンス全体のDOMを作ってから取り出す
+    @Benchmark
+    public List<Post> jsonDom() {
+        JSONObject json = new JSONObject(new JSONTokener(new ByteArrayInputStream(body)));
+        JSONArray feed = json.getJSONArray("feed");
+        List<Post> posts = new ArrayList<>(feed.length());
+        for (int i = 0; i < feed.length(); i++) {
+            JSONObject post = feed.getJSONObject(i).getJSONObject("post");
+            JSONObject author = post.getJSONObject("author");
+            JSONObject record = post.getJSONObject("record");
+            posts.add(new Post(post.optString("uri", null), author.getString("handle"), author.optString("displayName", null),
+                    record.optString("text", ""), record.optString("createdAt", null)));
+        }
+        return posts;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.blueskyplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// 多人数のプレイヤーが /bsky コマンドを打ち続ける負荷試験
+// FakePds と FakeServer の上で本物のBlueskyPluginを動かし、スループット・遅延・メインスレッドの詰まりを表示する
+//
+// java -cp target/benchmarks.jar com.example.blueskyplugin.LoadTest players=200 duration=60 latency-ms=50
+public final class LoadTest {
+    // 1つのコマンドの種類ごとの応答時間 (最初の返信までのナノ秒)
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private static final String[] FEEDS = {"Minecraft", "Builders", "Redstone", "ServerNews"};
+
+    private final Map<String, String> options;
+    private final Map<String, Samples> samples = new ConcurrentHashMap<>();
+    private final LongAdder timeouts = new LongAdder();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("引数は name=value の形で指定してください: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    private long option(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    private double option(String name, double defaultValue) {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+    }
+
+    private void run() throws Exception {
+        int playerCount = (int) option("players", 200);
+        long durationMillis = TimeUnit.SECONDS.toMillis(option("duration", 60));
+        long thinkMillis = option("think-ms", 500);
+        long replyTimeoutMillis = option("reply-timeout-ms", 30000);
+        FakePds.Faults faults = new FakePds.Faults(option("latency-ms", 50), option("jitter-ms", 25),
+                option("error-rate", 0.0), option("rate-limit-rate", 0.0));
+
+        Path dataFolder = Files.createTempDirectory("bluesky-loadtest");
+        try (FakePds pds = new FakePds(faults, option("access-ttl-seconds", 7200))) {
+            // service-url だけを差し替え、他の設定はプラグインのconfig.ymlの既定値を使う
+            Files.writeString(dataFolder.resolve("config.yml"), "service-url: \"" + pds.url() + "\"\n", StandardCharsets.UTF_8);
+
+            FakeServer fake = new FakeServer();
+            Bukkit.setServer(fake.server());
+            JavaPlugin plugin = LoadTestClassLoader.load(fake.server(),
+                    new PluginDescriptionFile("BlueskyPlugin", "load-test", BlueskyPlugin.class.getName()),
+                    dataFolder.toFile(), new File(dataFolder.toFile(), "BlueskyPlugin.jar"));
+            fake.registerCommand(plugin);
+            runOnMainThread(fake, () -> LoadTestClassLoader.setEnabled(plugin, true));
+
+            System.out.printf("%d人のプレイヤーで%d秒間実行します (PDS: %s, 遅延 %d±%dms, エラー率 %.3f, 429率 %.3f)%n",
+                    playerCount, durationMillis / 1000, pds.url(), faults.latencyMillis(), faults.jitterMillis(),
+                    faults.errorRate(), faults.rateLimitRate());
+
+            long startTicks = fake.ticks();
+            long startBusy = fake.busyNanos();
+            long start = System.nanoTime();
+            long deadline = System.currentTimeMillis() + durationMillis;
+            try (ExecutorService players = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < playerCount; i++) {
+                    int index = i;
+                    players.execute(() -> simulatePlayer(fake, plugin, index, deadline, thinkMillis, replyTimeoutMillis));
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            report(fake, pds, playerCount, elapsed, fake.ticks() - startTicks, fake.busyNanos() - startBusy);
+            runOnMainThread(fake, () -> LoadTestClassLoader.setEnabled(plugin, false));
+            fake.shutdown();
+        } finally {
+            try (Stream<Path> files = Files.walk(dataFolder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // 1人分: ログインしてから、終了時刻までコマンドを打ち続ける
+    private void simulatePlayer(FakeServer fake, JavaPlugin plugin, int index, long deadline,
+                                long thinkMillis, long replyTimeoutMillis) {
+        BlockingQueue<String> inbox = new LinkedBlockingQueue<>();
+        Player player = fake.addPlayer("player" + index, index % 2 == 0 ? Locale.JAPAN : Locale.US, inbox::add);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            command(fake, plugin, player, inbox, "login", replyTimeoutMillis, "login", "player" + index + ".bsky.social", "password");
+            while (System.currentTimeMillis() < deadline) {
+                int roll = random.nextInt(100);
+                if (roll < 35) {
+                    command(fake, plugin, player, inbox, "tl", replyTimeoutMillis, "tl");
+                } else if (roll < 45) {
+                    command(fake, plugin, player, inbox, "tl more", replyTimeoutMillis, "tl", "more");
+                } else if (roll < 65) {
+                    command(fake, plugin, player, inbox, "feed", replyTimeoutMillis, "feed", FEEDS[random.nextInt(FEEDS.length)]);
+                } else if (roll < 75) {
+                    command(fake, plugin, player, inbox, "feed list", replyTimeoutMillis, "feed", "list");
+                } else {
+                    // メンションとタグを含める (facetの作成とgetProfilesも通す)
+                    command(fake, plugin, player, inbox, "post", replyTimeoutMillis, "post", "負荷試験の投稿",
+                            "@player" + random.nextInt(1000) + ".bsky.social", "#loadtest" + random.nextInt(100));
+                }
+                if (thinkMillis > 0) {
+                    Thread.sleep(random.nextLong(thinkMillis * 2 + 1));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fake.removePlayer(player);
+        }
+    }
+
+    // メインスレッドでコマンドを実行し、最初の返信までの時間を記録する
+    // (前のコマンドの非同期の通知が遅れて届いた場合はそれを返信とみなすことがある)
+    private void command(FakeServer fake, JavaPlugin plugin, Player player, BlockingQueue<String> inbox,
+                         String kind, long replyTimeoutMillis, String... args) throws InterruptedException {
+        inbox.clear();
+        long start = System.nanoTime();
+        fake.runOnMainThread(() -> plugin.onCommand(player, fake.command(), "bsky", args));
+        String reply = inbox.poll(replyTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (reply == null) {
+            timeouts.increment();
+            return;
+        }
+        samples.computeIfAbsent(kind, k -> new Samples()).add(System.nanoTime() - start);
+    }
+
+    private void report(FakeServer fake, FakePds pds, int playerCount, long elapsedNanos, long ticks, long busyNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = 0;
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Samples> entry : new TreeMap<>(samples).entrySet()) {
+            long[] sorted = entry.getValue().sorted();
+            total += sorted.length;
+            lines.add(String.format("  %-10s n=%-7d p50=%7.1fms p95=%7.1fms p99=%7.1fms p99.9=%7.1fms max=%7.1fms",
+                    entry.getKey(), sorted.length, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                    percentile(sorted, 0.99), percentile(sorted, 0.999), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6));
+        }
+        System.out.printf("=== 結果 (%d人, %.1f秒) ===%n", playerCount, seconds);
+        System.out.printf("コマンド: %d (%.1f/秒), 返信なし: %d%n", total, total / seconds, timeouts.sum());
+        lines.forEach(System.out::println);
+        System.out.printf("メインスレッド: %d tick, 使用 %.1fms (%.2f%%), 最長tick %.1fms, 50ms超過 %d回%n",
+                ticks, busyNanos / 1e6, ticks == 0 ? 0 : busyNanos * 100.0 / (ticks * 50e6),
+                fake.maxTickNanos() / 1e6, fake.overrunTicks());
+        System.out.printf("PDS: %s, 注入した5xx %d, 429 %d%n", pds.requestCounts(), pds.injectedErrors(), pds.injectedRateLimits());
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * q) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    // メインスレッドで実行して終わるまで待つ (onEnable / onDisable 用)
+    private static void runOnMainThread(FakeServer fake, Runnable task) throws ExecutionException, InterruptedException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        fake.runOnMainThread(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        done.get();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.blueskyplugin;
+
+import io.papermc.paper.plugin.configuration.PluginMeta;
+import io.papermc.paper.plugin.provider.classloader.ConfiguredPluginClassLoader;
+import io.papermc.paper.plugin.provider.classloader.PluginClassLoaderGroup;
+import org.bukkit.Server;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.logging.Logger;
+
+// FakeServer上でBlueskyPluginを動かすためのプラグイン用クラスローダー
+// サーバーと同じく、プラグインのクラスはこのローダーで読み込み、JavaPlugin() からの init で初期化する
+// (コンストラクタもフィールドの初期化も本物のサーバーと同じように実行される)
+public final class LoadTestClassLoader extends URLClassLoader implements ConfiguredPluginClassLoader {
+    private static final String PLUGIN_PACKAGE = BlueskyPlugin.class.getPackageName() + ".";
+
+    private final Server server;
+    private final PluginDescriptionFile description;
+    private final File dataFolder;
+    private final File file;
+    private JavaPlugin plugin;
+
+    private LoadTestClassLoader(Server server, PluginDescriptionFile description, File dataFolder, File file) {
+        super(new URL[] {BlueskyPlugin.class.getProtectionDomain().getCodeSource().getLocation()},
+                LoadTestClassLoader.class.getClassLoader());
+        this.server = server;
+        this.description = description;
+        this.dataFolder = dataFolder;
+        this.file = file;
+    }
+
+    // プラグインのメインクラスを読み込んで作る
+    public static JavaPlugin load(Server server, PluginDescriptionFile description, File dataFolder, File file)
+            throws ReflectiveOperationException {
+        LoadTestClassLoader loader = new LoadTestClassLoader(server, description, dataFolder, file);
+        return loader.loadClass(BlueskyPlugin.class.getName()).asSubclass(JavaPlugin.class)
+                .getConstructor().newInstance();
+    }
+
+    // onEnable / onDisable はサーバーと同じくsetEnabledから呼ぶ
+    public static void setEnabled(JavaPlugin plugin, boolean enabled) {
+        try {
+            Method setEnabled = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+            setEnabled.setAccessible(true);
+            setEnabled.invoke(plugin, enabled);
+        } catch (InvocationTargetException e) {
+            // onEnable / onDisable で起きた例外はそのまま投げる
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // プラグインのパッケージは親より先にこのローダーで探す (package-privateのクラスも同じローダーに揃える)
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith(PLUGIN_PACKAGE)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                try {
+                    loaded = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    public Class<?> loadClass(String name, boolean resolve, boolean checkGlobal, boolean checkLibraries)
+            throws ClassNotFoundException {
+        return loadClass(name, resolve);
+    }
+
+    @Override
+    public void init(JavaPlugin plugin) {
+        this.plugin = plugin;
+        plugin.init(server, description, dataFolder, file, this, description, Logger.getLogger(description.getName()));
+    }
+
+    @Override
+    public PluginMeta getConfiguration() {
+        return description;
+    }
+
+    @Override
+    public JavaPlugin getPlugin() {
+        return plugin;
+    }
+
+    @Override
+    public PluginClassLoaderGroup getGroup() {
+        return null;
+    }
+}
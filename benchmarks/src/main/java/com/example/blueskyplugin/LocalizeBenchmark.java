@@ -0,0 +1,58 @@
+package com.example.blueskyplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// sendLocalized のメッセージの検索と引数の埋め込み
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalizeBenchmark {
+    @Param({"ja", "en"})
+    public String lang;
+
+    private final UUID playerId = UUID.randomUUID();
+    private MessageCatalog catalog;
+
+    @Setup
+    public void setUp() {
+        catalog = new MessageCatalog(null, "ja", Logger.getLogger("LocalizeBenchmark"));
+    }
+
+    // プレイヤーの言語はキャッシュから引く (sendLocalized と同じ経路)
+    private MessageCatalog.Language language() {
+        return catalog.forPlayer(playerId, () -> lang, () -> Locale.JAPAN);
+    }
+
+    @Benchmark
+    public String withoutArgs() {
+        return language().format(Message.TIMELINE_HEADER);
+    }
+
+    @Benchmark
+    public String withArgs() {
+        return language().format(Message.POST_FAILED, "HTTP 500");
+    }
+
+    // 比較用: 毎回 String.format で組み立てる (以前の方法)
+    @Benchmark
+    public String stringFormat() {
+        return String.format("投稿に失敗しました: %s", "HTTP 500");
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// ベンチマーク用に記録したXRPCレスポンス (src/main/resources/payloads)
+final class Payloads {
+    private Payloads() {
+    }
+
+    static byte[] load(String name) {
+        try (InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown payload: " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
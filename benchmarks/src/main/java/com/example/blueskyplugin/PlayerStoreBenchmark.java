@@ -0,0 +1,108 @@
+package com.example.blueskyplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// 保存済みユーザーが多い場合の saveData / loadData (players/<uuid>.json と SQLite)
+// 1回が長いのでSingleShotTimeで測る。書き込みはfsyncを含むのでディスクの速さに大きく左右される
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PlayerStoreBenchmark {
+    @Param({"10000", "100000"})
+    public int users;
+
+    @Param({"json", "sqlite"})
+    public String backend;
+
+    private static final Logger LOGGER = Logger.getLogger("PlayerStoreBenchmark");
+
+    private Path directory;
+    private UUID[] playerIds;
+    private PlayerStore store;
+
+    @Setup(Level.Trial)
+    public void createUsers() throws IOException {
+        directory = Files.createTempDirectory("bluesky-bench");
+        playerIds = new UUID[users];
+        PlayerStore initial = new PlayerStore(open(), LOGGER, () -> { });
+        for (int i = 0; i < users; i++) {
+            UUID playerId = UUID.randomUUID();
+            playerIds[i] = playerId;
+            Session session = new Session("access-" + i, "refresh-" + i, "did:plc:bench" + i, 0L);
+            initial.update(playerId, data -> new PlayerData(session, "player" + playerId.hashCode() + ".bsky.social", "ja", null, false));
+        }
+        initial.writeDirty();
+        initial.close();
+    }
+
+    // 全員の変更を書き込む
+    @Setup(Level.Invocation)
+    public void markAllDirty() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = new PlayerStore(open(), LOGGER, () -> { });
+        for (UUID playerId : playerIds) {
+            store.update(playerId, data -> data.withLang("en".equals(data.lang()) ? "ja" : "en"));
+        }
+    }
+
+    @Benchmark
+    public void saveAll() {
+        store.writeDirty();
+    }
+
+    // 全員分をファイルから読み込む
+    @Benchmark
+    public int loadAll() throws IOException {
+        PlayerStore fresh = new PlayerStore(open(), LOGGER, () -> { });
+        int loaded = 0;
+        for (UUID playerId : playerIds) {
+            if (!fresh.load(playerId).isEmpty()) {
+                loaded++;
+            }
+        }
+        fresh.close();
+        return loaded;
+    }
+
+    private SessionStore open() throws IOException {
+        return backend.equals("sqlite")
+                ? new SqliteSessionStore(directory.resolve("players.db"))
+                : new JsonSessionStore(directory, LOGGER);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteUsers() throws IOException {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.blueskyplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// XRPC通信やJSON処理をメインスレッドの外で実行するための実行レイヤー
+// 処理は仮想スレッド上で走り、チャット送信だけをBukkitスケジューラでメインスレッドに戻す
+public class AsyncRunner {
+    private final JavaPlugin plugin;
+    private final Metrics metrics;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // 処理中のプレイヤー (1人につき同時に1リクエストまで)
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    public AsyncRunner(JavaPlugin plugin, Metrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+    }
+
+    // プレイヤーの処理を非同期で実行する。既に処理中ならfalseを返して何もしない
+    public boolean submit(UUID playerId, Runnable task) {
+        if (!inFlight.add(playerId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    plugin.getLogger().warning("非同期処理中にエラーが発生しました: " + e.getMessage());
+                } finally {
+                    inFlight.remove(playerId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(playerId);
+            return false;
+        }
+    }
+
+    // プレイヤーに紐付かないバックグラウンド処理を実行する
+    public void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            plugin.getLogger().warning("プラグイン停止中のため処理を実行できません");
+        }
+    }
+
+    // メインスレッドで処理を実行する (既にメインスレッドならそのまま実行)
+    public void sync(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else if (plugin.isEnabled()) {
+            Bukkit.getScheduler().runTask(plugin, () -> timed(task));
+        }
+    }
+
+    // メインスレッドで使った時間を記録しながら実行する
+    public void timed(Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            metrics.recordMainThread(System.nanoTime() - start);
+        }
+    }
+
+    public boolean isBusy(UUID playerId) {
+        return inFlight.contains(playerId);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.blueskyplugin;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.bukkit.advancement.AdvancementDisplay;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.player.PlayerAdvancementDoneEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+// 自動投稿する出来事を拾う
+// Bukkitのイベントはメインスレッドで呼ばれるので、名前などを取り出して AutoPoster のキューに入れるだけにする
+public class AutoPostListener implements Listener {
+    private final AutoPoster poster;
+    private final boolean advancements;
+    // 討伐を投稿するボス (空なら投稿しない)
+    private final Set<EntityType> bosses;
+    // 同時接続数の節目 (空なら投稿しない)
+    private final Set<Integer> milestones;
+    private final IntSupplier onlineCount;
+
+    public AutoPostListener(AutoPoster poster, boolean advancements, Set<EntityType> bosses,
+                            Set<Integer> milestones, IntSupplier onlineCount) {
+        this.poster = poster;
+        this.advancements = advancements;
+        this.bosses = bosses;
+        this.milestones = milestones;
+        this.onlineCount = onlineCount;
+    }
+
+    // チャットで告知される進捗だけ (レシピの解除などは除く)
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAdvancement(PlayerAdvancementDoneEvent event) {
+        if (!advancements) {
+            return;
+        }
+        AdvancementDisplay display = event.getAdvancement().getDisplay();
+        if (display == null || !display.doesAnnounceToChat()) {
+            return;
+        }
+        Player player = event.getPlayer();
+        poster.offer(new AutoPoster.GameEvent(AutoPoster.Kind.ADVANCEMENT, player.getUniqueId(), player.getName(),
+                title(display.title(), event.getAdvancement().getKey().getKey())));
+    }
+
+    // ボスを倒したプレイヤー
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityDeath(EntityDeathEvent event) {
+        if (!bosses.contains(event.getEntityType())) {
+            return;
+        }
+        Player killer = event.getEntity().getKiller();
+        if (killer != null) {
+            poster.offer(new AutoPoster.GameEvent(AutoPoster.Kind.BOSS, killer.getUniqueId(), killer.getName(),
+                    event.getEntity().getName()));
+        }
+    }
+
+    // 同時接続数が節目に達した
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        int online = onlineCount.getAsInt();
+        if (milestones.contains(online)) {
+            poster.offer(new AutoPoster.GameEvent(AutoPoster.Kind.MILESTONE, null, null, String.valueOf(online)));
+        }
+    }
+
+    // 進捗の名前 (バニラの進捗は翻訳キーなので、キーから作る: story/mine_stone → Mine Stone)
+    static String title(Component title, String key) {
+        if (title instanceof TextComponent text && title.children().isEmpty() && !text.content().isBlank()) {
+            return text.content();
+        }
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        StringBuilder result = new StringBuilder();
+        for (String word : name.split("_")) {
+            if (!word.isEmpty()) {
+                if (!result.isEmpty()) {
+                    result.append(' ');
+                }
+                result.append(word.substring(0, 1).toUpperCase(Locale.ROOT)).append(word.substring(1));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.blueskyplugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// ゲーム内の出来事 (進捗・ボスの討伐・同時接続数の節目) をまとめてBlueskyに投稿する
+// 出来事は投稿先のアカウントと種類ごとの窓に溜め、窓が閉じた時に1件のまとめの投稿にする
+// 同じ窓の中と、直前に投稿した同じ出来事 (dedupeMillis 以内) は捨てる
+// 同じアカウントで同時に閉じた窓の投稿は1回の書き込み (applyWrites) にまとめる
+public class AutoPoster {
+    public enum Kind { ADVANCEMENT, BOSS, MILESTONE }
+
+    // メインスレッドで作る出来事のスナップショット (Bukkitのオブジェクトは持たない)
+    // subject: 進捗の名前・ボスの名前・同時接続数
+    public record GameEvent(Kind kind, UUID playerId, String playerName, String subject) {
+        // 同じ出来事かどうかの判定に使う
+        String key() {
+            return kind + "|" + (playerId != null ? playerId : "") + "|" + subject;
+        }
+    }
+
+    // 出来事の投稿先のアカウント (プレイヤー本人かサーバーのアカウント、投稿しないならnull)
+    @FunctionalInterface
+    public interface Router {
+        UUID route(GameEvent event);
+    }
+
+    // まとめた本文をアカウントから投稿する (複数の本文は1回の書き込みにまとめる)
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(UUID account, List<String> texts) throws Exception;
+    }
+
+    private record WindowKey(UUID account, Kind kind) {}
+
+    // 1つの窓に溜まった出来事 (同じ出来事は1回だけ)
+    private static final class Window {
+        private final long closesAt;
+        private final Map<String, GameEvent> events = new LinkedHashMap<>();
+
+        private Window(long closesAt) {
+            this.closesAt = closesAt;
+        }
+    }
+
+    // Blueskyの投稿の最大文字数
+    private static final int MAX_POST_LENGTH = 300;
+
+    private final Router router;
+    private final Publisher publisher;
+    // 投稿の本文の言語 (サーバーの既定の言語)
+    private final Supplier<MessageCatalog.Language> language;
+    private final Map<Kind, Long> windowMillis;
+    private final long dedupeMillis;
+    private final Logger logger;
+    private final Metrics metrics;
+    // メインスレッドから渡された出来事 (取り出すのはワーカーのスレッドだけ)
+    private final ConcurrentLinkedQueue<GameEvent> inbox = new ConcurrentLinkedQueue<>();
+    // 以下はワーカーのスレッドだけが触る
+    private final Map<WindowKey, Window> windows = new LinkedHashMap<>();
+    // アカウントと出来事 → 最後に投稿した時刻
+    private final Map<String, Long> posted = new HashMap<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon().name("bluesky-autopost").unstarted(r));
+
+    public AutoPoster(Router router, Publisher publisher, Supplier<MessageCatalog.Language> language,
+                      Map<Kind, Long> windowMillis, long dedupeMillis, Logger logger, Metrics metrics) {
+        this.router = router;
+        this.publisher = publisher;
+        this.language = language;
+        this.windowMillis = Map.copyOf(windowMillis);
+        this.dedupeMillis = dedupeMillis;
+        this.logger = logger;
+        this.metrics = metrics;
+        worker.scheduleWithFixedDelay(() -> tick(false), 1, 1, TimeUnit.SECONDS);
+    }
+
+    // 出来事を受け付ける (メインスレッドから呼ばれるので、キューに入れるだけ)
+    public void offer(GameEvent event) {
+        inbox.add(event);
+    }
+
+    // 開いている窓をすべて閉じて投稿キューに渡してから止める
+    // 投稿キューを先に止めておくので、渡した投稿はその場では送らずに outbox.json に残る
+    public void shutdown() {
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warning("自動投稿の停止を待ちきれませんでした");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        tick(true);
+    }
+
+    private void tick(boolean flushAll) {
+        try {
+            long now = System.currentTimeMillis();
+            collect(now);
+            flush(now, flushAll);
+            posted.values().removeIf(time -> now - time > dedupeMillis);
+        } catch (RuntimeException e) {
+            logger.warning("自動投稿の処理でエラーが発生しました: " + e.getMessage());
+        }
+    }
+
+    // 受け付けた出来事を投稿先ごとの窓に入れる
+    private void collect(long now) {
+        GameEvent event;
+        while ((event = inbox.poll()) != null) {
+            metrics.increment("autopost_events");
+            UUID account = router.route(event);
+            if (account == null) {
+                continue;
+            }
+            String key = event.key();
+            if (posted.containsKey(account + "|" + key)) {
+                metrics.increment("autopost_duplicates");
+                continue;
+            }
+            long length = windowMillis.getOrDefault(event.kind(), 0L);
+            Window window = windows.computeIfAbsent(new WindowKey(account, event.kind()), k -> new Window(now + length));
+            if (window.events.putIfAbsent(key, event) != null) {
+                metrics.increment("autopost_duplicates");
+            }
+        }
+    }
+
+    // 閉じた窓をアカウントごとにまとめて投稿する
+    private void flush(long now, boolean flushAll) {
+        Map<UUID, List<String>> due = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<WindowKey, Window>> it = windows.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<WindowKey, Window> entry = it.next();
+            Window window = entry.getValue();
+            if (!flushAll && window.closesAt > now) {
+                continue;
+            }
+            it.remove();
+            UUID account = entry.getKey().account();
+            for (String key : window.events.keySet()) {
+                posted.put(account + "|" + key, now);
+            }
+            due.computeIfAbsent(account, k -> new ArrayList<>())
+                    .addAll(summarize(entry.getKey().kind(), window.events.values()));
+        }
+        for (Map.Entry<UUID, List<String>> entry : due.entrySet()) {
+            try {
+                publisher.publish(entry.getKey(), entry.getValue());
+                metrics.add("autopost_posts", entry.getValue().size());
+            } catch (Exception e) {
+                logger.warning("自動投稿に失敗しました (" + entry.getKey() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    // 1つの窓の出来事をまとめの本文にする (300文字を超える分は次の投稿に回す)
+    private List<String> summarize(Kind kind, Iterable<GameEvent> events) {
+        MessageCatalog.Language lang = language.get();
+        List<String> lines = new ArrayList<>();
+        switch (kind) {
+            case ADVANCEMENT -> {
+                // プレイヤーごとに1行
+                Map<String, List<String>> byPlayer = new LinkedHashMap<>();
+                for (GameEvent event : events) {
+                    byPlayer.computeIfAbsent(event.playerName(), k -> new ArrayList<>()).add("[" + event.subject() + "]");
+                }
+                byPlayer.forEach((player, titles) ->
+                        lines.add(lang.format(Message.AUTOPOST_ADVANCEMENT, player, String.join(" ", titles))));
+            }
+            case BOSS -> {
+                // ボスごとに1行
+                Map<String, List<String>> byBoss = new LinkedHashMap<>();
+                for (GameEvent event : events) {
+                    byBoss.computeIfAbsent(event.subject(), k -> new ArrayList<>()).add(event.playerName());
+                }
+                byBoss.forEach((boss, players) ->
+                        lines.add(lang.format(Message.AUTOPOST_BOSS, String.join(", ", players), boss)));
+            }
+            case MILESTONE -> {
+                // 窓の中で一番大きい節目だけ
+                int highest = 0;
+                for (GameEvent event : events) {
+                    highest = Math.max(highest, Integer.parseInt(event.subject()));
+                }
+                lines.add(lang.format(Message.AUTOPOST_MILESTONE, highest));
+            }
+        }
+        return pack(lines);
+    }
+
+    // 行を300文字以内の投稿に詰める
+    static List<String> pack(List<String> lines) {
+        List<String> posts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int length = 0;
+        for (String line : lines) {
+            line = PostRenderer.truncate(line, MAX_POST_LENGTH);
+            int lineLength = line.codePointCount(0, line.length());
+            if (length > 0 && length + 1 + lineLength > MAX_POST_LENGTH) {
+                posts.add(current.toString());
+                current.setLength(0);
+                length = 0;
+            }
+            if (length > 0) {
+                current.append('\n');
+                length++;
+            }
+            current.append(line);
+            length += lineLength;
+        }
+        if (length > 0) {
+            posts.add(current.toString());
+        }
+        return posts;
+    }
+}
@@ -1,304 +1,708 @@
 package com.example.blueskyplugin;
 
+import net.kyori.adventure.text.Component;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.List;
 import java.util.ArrayList;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.time.Duration;
 import org.json.JSONObject;
 import org.json.JSONArray;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.FileReader;
 import java.util.Collections;
 import java.util.Arrays;
 import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class BlueskyPlugin extends JavaPlugin {
-    private Map<UUID, String> userTokens = new HashMap<>();
-    private Map<UUID, String> userHandles = new HashMap<>();
-    // ユーザーの選択言語を保存 ("japanese" or "english")
-    private Map<UUID, String> userLang = new HashMap<>();
-    private Map<UUID, List<String>> userFeeds = new HashMap<>();
-
-    // ローカライズ用メッセージ辞書
-    private final Map<String, Map<String, String>> messages = new HashMap<>();
+    // app.bsky.actor.getProfiles で1回に指定できるアクター数
+    private static final int MAX_PROFILES_PER_REQUEST = 25;
+    // サーバーのアカウント (自動投稿用) のデータを保存するUUID (プレイヤーとは重ならない)
+    private static final UUID SERVER_ACCOUNT = new UUID(0, 0);
+
+    // セッション・ハンドル・言語 (言語コード、未設定ならクライアントの言語を使う) をプレイヤーごとに保持
+    private PlayerStore playerStore;
+
+    // XRPC呼び出しをメインスレッド外で実行する
+    private AsyncRunner asyncRunner;
+    // 全ハンドラで共有するXRPCクライアント
+    private XrpcClient xrpc;
+    // ハンドル→DIDのキャッシュ (投稿前のgetProfileを省く)
+    private IdentityCache identityCache;
+    // アクセストークン・リフレッシュトークンの保持と自動更新
+    private SessionManager sessionManager;
+    // 取得済みタイムラインページのキャッシュ
+    private TimelinePageCache timelinePages;
+    // タイムライン1ページあたりの件数
+    private String timelineLimit;
+    private int maxTimelinePage;
+    // 再参加時にすぐ表示するための、ディスクに残すタイムラインの先頭ページ (無効ならnull)
+    private PostCache postCache;
+    // フィード表示名→AT-URIの索引
+    private FeedIndex feedIndex;
+    // 閲覧者に依存しないフィードの取得をまとめる共有キャッシュ
+    private RequestCoalescer<FeedDecoder.FeedPage> sharedFeeds;
+    // 閲覧者ごとに内容が変わるため共有しないフィード
+    private Set<String> personalizedFeeds;
+    // サーバー全体の投稿送信キュー
+    private PostQueue postQueue;
+    // タイムライン・フィードのページをComponentにする
+    private PostRenderer postRenderer;
+    // @ハンドルのTab補完の候補 (プレフィックスごとのキャッシュ)
+    private HandleTypeahead typeahead;
+    // オンラインのプレイヤーの通知の確認 (無効ならnull)
+    private NotificationPoller notificationPoller;
+    // ライブ表示中のプレイヤーのフォロー先DID→プレイヤーの索引と、全体で1本のJetstream接続 (無効ならnull)
+    private FollowerIndex followerIndex;
+    // ライブ表示をオンにしてフォロー一覧を読み込んでいる途中のプレイヤー (followerIndex と一緒にこれで同期する)
+    private Set<UUID> liveEnabling;
+    private JetstreamClient liveStream;
+    private int maxLiveFollows;
+    // ゲーム内の出来事の自動投稿 (無効ならnull)
+    private AutoPoster autoPoster;
+    // 投稿に添付する画像の用意 (無効ならnull)
+    private ImagePipeline imagePipeline;
+    private int mapRadiusChunks;
+
+    // userdata.json の書き込みをまとめてバックグラウンドで行う
+    private WriteBehindFlusher dataFlusher;
+    // 遅延・エラー・キャッシュなどの計測値 (/bsky stats, JMX, metrics.prom)
+    private Metrics metrics;
+
+    // ローカライズ用メッセージ辞書 (lang/*.properties)
+    private MessageCatalog messages;
 
     @Override
     public void onEnable() {
         getLogger().info("BlueskyPlugin enabled");
-        
+
+        saveDefaultConfig();
+
+        // メッセージ辞書を読み込む (データフォルダの lang/ で上書きできる)
+        saveLanguageFiles();
+        messages = new MessageCatalog(new File(getDataFolder(), "lang").toPath(),
+                getConfig().getString("lang.default", "ja"), getLogger());
+        getServer().getPluginManager().registerEvents(new LocaleListener(messages), this);
+
+        metrics = new Metrics();
+        asyncRunner = new AsyncRunner(this, metrics);
+        dataFlusher = new WriteBehindFlusher(this::writeData, getLogger(), metrics);
+        playerStore = new PlayerStore(openSessionStore(), getLogger(), this::saveData);
+        xrpc = new XrpcClient(
+                getConfig().getString("service-url", "https://bsky.social"),
+                Duration.ofSeconds(getConfig().getLong("http.connect-timeout-seconds", 10)),
+                Duration.ofSeconds(getConfig().getLong("http.request-timeout-seconds", 30)),
+                getConfig().getInt("http.max-concurrent-reads", 16),
+                getConfig().getInt("http.max-concurrent-writes", 4),
+                getConfig().getLong("http.bulkhead-wait-millis", 2000),
+                new CircuitBreaker(getConfig().getInt("http.circuit-breaker.failure-threshold", 5),
+                        Duration.ofSeconds(getConfig().getLong("http.circuit-breaker.open-seconds", 30)).toMillis()),
+                metrics);
+        identityCache = new IdentityCache(
+                getConfig().getInt("identity-cache.max-entries", 10000),
+                Duration.ofHours(getConfig().getLong("identity-cache.ttl-hours", 24)).toMillis());
+
+        sessionManager = new SessionManager(xrpc, playerStore, getLogger(),
+                Duration.ofMinutes(getConfig().getLong("session.refresh-before-minutes", 10)).toMillis(), metrics);
+
+        timelinePages = new TimelinePageCache(
+                Duration.ofSeconds(getConfig().getLong("timeline.cache-ttl-seconds", 120)).toMillis(),
+                getConfig().getInt("timeline.cache-pages", 10));
+        timelineLimit = String.valueOf(Math.max(1, Math.min(100, getConfig().getInt("timeline.limit", 10))));
+        maxTimelinePage = getConfig().getInt("timeline.cache-pages", 10);
+        postRenderer = new PostRenderer(getConfig().getInt("timeline.max-post-length", 140));
+        if (getConfig().getBoolean("timeline.disk-cache.enabled", true)) {
+            try {
+                postCache = new PostCache(new File(getDataFolder(), "postcache").toPath(),
+                        getConfig().getLong("timeline.disk-cache.max-megabytes", 32) * 1024 * 1024, getLogger());
+            } catch (IOException e) {
+                getLogger().warning("投稿キャッシュを開けませんでした: " + e.getMessage());
+            }
+        }
+
+        feedIndex = new FeedIndex(xrpc, sessionManager,
+                Duration.ofMinutes(getConfig().getLong("feeds.index-refresh-minutes", 30)).toMillis());
+
+        sharedFeeds = new RequestCoalescer<>(
+                Duration.ofSeconds(getConfig().getLong("feeds.shared-cache-seconds", 15)).toMillis(),
+                getConfig().getInt("feeds.shared-cache-entries", 64), metrics, "feeds");
+        personalizedFeeds = new HashSet<>(getConfig().getStringList("feeds.personalized"));
+
+        postQueue = new PostQueue(xrpc, sessionManager, getLogger(), new File(getDataFolder(), "outbox-images").toPath(),
+                this::notifyPlayer, this::saveData,
+                getConfig().getInt("posts.max-attempts", 8),
+                Duration.ofSeconds(getConfig().getLong("posts.backoff-base-seconds", 2)).toMillis(),
+                Duration.ofSeconds(getConfig().getLong("posts.backoff-max-seconds", 300)).toMillis(), metrics);
+
+        // 投稿に添付する画像 (地図の描画やスクリーンショットの縮小は上限のあるワーカーで行う)
+        if (getConfig().getBoolean("images.enabled", true)) {
+            File screenshots = new File(getConfig().getString("images.screenshots-folder", "screenshots"));
+            if (!screenshots.isAbsolute()) {
+                screenshots = new File(getDataFolder(), screenshots.getPath());
+            }
+            imagePipeline = new ImagePipeline(screenshots.toPath(), new File(getDataFolder(), "tmp").toPath(),
+                    getConfig().getLong("images.max-bytes", 1000000),
+                    getConfig().getInt("images.max-dimension", 2000),
+                    getConfig().getInt("images.map-pixels-per-block", 4),
+                    getConfig().getInt("images.workers", 2),
+                    getConfig().getInt("images.queue-size", 8));
+            imagePipeline.clearTemporaryFiles();
+            mapRadiusChunks = Math.max(1, Math.min(8, getConfig().getInt("images.map-radius-chunks", 3)));
+        }
+
         // 保存されたデータを読み込む
         loadData();
 
-        // メッセージ辞書初期化
-        initMessages();
-        
-        // コマンドのTab補完を登録
-        getCommand("bsky").setTabCompleter((sender, command, alias, args) -> {
-            List<String> completions = new ArrayList<>();
-            if (!(sender instanceof Player)) {
-                return completions;
+        // 参加時に読み込み、退出後しばらくしたらメモリから外す
+        getServer().getPluginManager().registerEvents(new PlayerDataListener(this, playerStore,
+                getConfig().getLong("storage.evict-after-seconds", 300) * 20L, this::evictPlayer), this);
+
+        // 変更されたデータを定期的に書き込む
+        long flushInterval = Math.max(1, getConfig().getLong("storage.flush-interval-seconds", 5)) * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, dataFlusher::flush, flushInterval, flushInterval);
+
+        // 期限の近いセッションをバックグラウンドで更新 (オンラインのプレイヤーのみ)
+        long refreshInterval = getConfig().getLong("session.refresh-check-seconds", 60) * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this,
+                () -> sessionManager.refreshExpiring(uuid -> uuid.equals(SERVER_ACCOUNT) || getServer().getPlayer(uuid) != null),
+                refreshInterval, refreshInterval);
+
+        // オンラインのプレイヤーのフィード索引をバックグラウンドで作り直す
+        long feedIndexInterval = getConfig().getLong("feeds.index-check-seconds", 300) * 20L;
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            for (Player online : getServer().getOnlinePlayers()) {
+                UUID uuid = online.getUniqueId();
+                if (sessionManager.has(uuid) && feedIndex.isStale(uuid)) {
+                    asyncRunner.execute(() -> refreshFeedIndex(uuid));
+                }
             }
-            
-            if (args.length == 1) {
-                // 最初の引数の候補
-                String[] commands = {"login", "logout", "post", "tl", "lang", "feed"};
-                for (String cmd : commands) {
-                    if (cmd.startsWith(args[0].toLowerCase())) {
-                        completions.add(cmd);
+        }, feedIndexInterval, feedIndexInterval);
+
+        // オンラインでログイン済みのプレイヤーの通知を1つのサービスでまとめて確認する
+        if (getConfig().getBoolean("notifications.enabled", true)) {
+            notificationPoller = new NotificationPoller(xrpc, sessionManager, playerStore, asyncRunner::execute,
+                    this::notifyPlayer, getLogger(), metrics,
+                    Duration.ofSeconds(getConfig().getLong("notifications.min-interval-seconds", 30)).toMillis(),
+                    Duration.ofSeconds(getConfig().getLong("notifications.max-interval-seconds", 300)).toMillis(),
+                    getConfig().getInt("notifications.workers", 4),
+                    getConfig().getInt("notifications.max-polls-per-second", 10),
+                    getConfig().getInt("notifications.max-per-poll", 5));
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+                List<UUID> players = new ArrayList<>();
+                for (Player online : getServer().getOnlinePlayers()) {
+                    if (sessionManager.has(online.getUniqueId())) {
+                        players.add(online.getUniqueId());
                     }
                 }
+                notificationPoller.tick(players);
+            }, 20L, 20L);
+        }
+
+        // ライブ表示: フォローしている投稿者の新しい投稿だけを、1本のストリームから配る
+        if (getConfig().getBoolean("live.enabled", false)) {
+            followerIndex = new FollowerIndex();
+            liveEnabling = new HashSet<>();
+            maxLiveFollows = getConfig().getInt("live.max-follows", 5000);
+            liveStream = new JetstreamClient(
+                    getConfig().getString("live.endpoint", "wss://jetstream2.us-east.bsky.network/subscribe"),
+                    followerIndex::isFollowed, this::deliverLivePost, getLogger(), metrics,
+                    Duration.ofSeconds(getConfig().getLong("live.reconnect-max-seconds", 60)).toMillis());
+            long followsInterval = getConfig().getLong("live.follows-refresh-minutes", 30) * 60 * 20L;
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+                for (UUID uuid : List.copyOf(followerIndex.players())) {
+                    asyncRunner.execute(() -> refreshFollows(uuid));
+                }
+            }, followsInterval, followsInterval);
+        }
+
+        // ゲーム内の出来事をまとめてプレイヤーかサーバーのアカウントに投稿する
+        if (getConfig().getBoolean("autopost.enabled", false)) {
+            startAutoPost();
+        }
+
+        // 計測値をJMXとPrometheus形式のファイルで公開する
+        if (getConfig().getBoolean("metrics.jmx", true)) {
+            try {
+                metrics.registerMBean();
+            } catch (Exception e) {
+                getLogger().warning("JMXへの登録に失敗しました: " + e.getMessage());
             }
-            
-            return completions;
-        });
+        }
+        long exportInterval = getConfig().getLong("metrics.export-interval-seconds", 15) * 20L;
+        if (exportInterval > 0) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, this::exportMetrics, exportInterval, exportInterval);
+        }
+
+        // コマンドのTab補完を登録 (Paperでは AsyncTabCompleteEvent でメインスレッドの外で補完する)
+        typeahead = new HandleTypeahead(this::searchHandles, asyncRunner::execute,
+                getConfig().getLong("tab-complete.debounce-millis", 150),
+                Duration.ofSeconds(getConfig().getLong("tab-complete.cache-seconds", 300)).toMillis(),
+                getConfig().getInt("tab-complete.cache-entries", 2000),
+                Math.max(1, Math.min(100, getConfig().getInt("tab-complete.limit", 10))), metrics);
+        BskyTabCompleter completer = new BskyTabCompleter(getCommand("bsky"), messages, feedIndex, sessionManager,
+                typeahead, imagePipeline, uuid -> asyncRunner.execute(() -> refreshFeedIndex(uuid)));
+        getCommand("bsky").setTabCompleter(completer);
+        getServer().getPluginManager().registerEvents(completer, this);
     }
 
     @Override
     public void onDisable() {
-        // データを保存
-        saveData();
+        // 実行中のリクエストを待ってから停止
+        if (asyncRunner != null) {
+            asyncRunner.shutdown();
+        }
+        if (typeahead != null) {
+            typeahead.shutdown();
+        }
+        if (liveStream != null) {
+            liveStream.shutdown();
+        }
+        if (imagePipeline != null) {
+            imagePipeline.shutdown();
+        }
+        // 送信中の1件は終わるまで待ち、送信待ちの投稿は outbox.json に残して次回起動時に送る
+        if (postQueue != null) {
+            postQueue.shutdown(Duration.ofSeconds(getConfig().getLong("http.request-timeout-seconds", 30)).toMillis());
+        }
+        // 開いている自動投稿の窓を閉じて、止めた送信キューに渡す (送らずに outbox.json に残る)
+        if (autoPoster != null) {
+            autoPoster.shutdown();
+        }
+        if (xrpc != null) {
+            xrpc.close();
+        }
+        // データを保存 (溜まっている変更を最後に1回だけ書き込む)
+        if (dataFlusher != null) {
+            dataFlusher.markDirty();
+            dataFlusher.flush();
+        }
+        if (playerStore != null) {
+            playerStore.close();
+        }
+        if (postCache != null) {
+            try {
+                postCache.close();
+            } catch (IOException e) {
+                getLogger().warning("投稿キャッシュを閉じられませんでした: " + e.getMessage());
+            }
+        }
+        if (metrics != null) {
+            exportMetrics();
+            metrics.unregisterMBean();
+        }
         getLogger().info("BlueskyPluginが無効になりました！");
     }
     
-    // データを保存するメソッド
+    // データの保存を予約するメソッド (実際の書き込みはバックグラウンドでまとめて行う)
     private void saveData() {
+        dataFlusher.markDirty();
+    }
+
+    // データを書き込むメソッド (WriteBehindFlusherから呼ばれる)
+    private void writeData() throws IOException {
+        // 変更のあったプレイヤーのファイルだけを書き込む
+        playerStore.writeDirty();
+
+        // ハンドル→DIDのキャッシュも同じフォルダに保存
+        identityCache.save(new File(getDataFolder(), "identities.json"));
+
+        // 送信待ちの投稿
+        postQueue.save(new File(getDataFolder(), "outbox.json").toPath());
+    }
+
+    // 計測値を metrics.prom に書き出す (node_exporterのtextfile collectorなどで読む)
+    private void exportMetrics() {
+        if (!getConfig().getBoolean("metrics.prometheus-file", true)) {
+            return;
+        }
         try {
-            File dataFolder = getDataFolder();
-            if (!dataFolder.exists()) {
-                dataFolder.mkdirs();
+            WriteBehindFlusher.writeAtomically(new File(getDataFolder(), "metrics.prom").toPath(),
+                    metrics.toPrometheus().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            getLogger().warning("メトリクスの書き出しに失敗しました: " + e.getMessage());
+        }
+    }
+
+    // プレイヤーのデータの保存先 (storage.backend)。SQLiteを開けなければ players/ のJSONを使う
+    private SessionStore openSessionStore() {
+        if (getConfig().getString("storage.backend", "json").equalsIgnoreCase("sqlite")) {
+            File file = new File(getConfig().getString("storage.sqlite-file", "players.db"));
+            if (!file.isAbsolute()) {
+                file = new File(getDataFolder(), file.getPath());
             }
-            
-            File file = new File(dataFolder, "userdata.json");
-            JSONObject data = new JSONObject();
-            
-            // ログイン情報を保存
-            JSONObject tokensData = new JSONObject();
-            JSONObject handlesData = new JSONObject();
-            JSONObject langData = new JSONObject();
-            
-            userTokens.forEach((uuid, token) -> tokensData.put(uuid.toString(), token));
-            userHandles.forEach((uuid, handle) -> handlesData.put(uuid.toString(), handle));
-            userLang.forEach((uuid, lang) -> langData.put(uuid.toString(), lang));
-            
-            data.put("tokens", tokensData);
-            data.put("handles", handlesData);
-            data.put("lang", langData);
-            
-            // ファイルに書き込み
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(data.toString(2));
+            try {
+                return new SqliteSessionStore(file.toPath());
+            } catch (IOException e) {
+                getLogger().warning(e.getMessage() + " (players/ に保存します)");
             }
-        } catch (Exception e) {
-            getLogger().warning("Error saving data: " + e.getMessage());
         }
+        return new JsonSessionStore(new File(getDataFolder(), "players").toPath(), getLogger());
     }
-    
+
     // データを読み込むメソッド
     private void loadData() {
         try {
-            File file = new File(getDataFolder(), "userdata.json");
-            if (!file.exists()) {
-                return;
-            }
-            
-            // ファイルを読み込み
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line);
-                }
-            }
-            
-            // JSONデータをパース
-            JSONObject data = new JSONObject(content.toString());
-            
-            // トークンを読み込み
-            JSONObject tokensData = data.getJSONObject("tokens");
-            tokensData.keys().forEachRemaining(uuidStr -> {
-                UUID uuid = UUID.fromString(uuidStr);
-                String token = tokensData.getString(uuidStr);
-                userTokens.put(uuid, token);
-            });
-            
-            // ハンドルを読み込み
-            JSONObject handlesData = data.getJSONObject("handles");
-            handlesData.keys().forEachRemaining(uuidStr -> {
-                UUID uuid = UUID.fromString(uuidStr);
-                String handle = handlesData.getString(uuidStr);
-                userHandles.put(uuid, handle);
-            });
-
-            // 言語設定を読み込み (存在しない場合は日本語)
-            if (data.has("lang")) {
-                JSONObject langData = data.getJSONObject("lang");
-                langData.keys().forEachRemaining(uuidStr -> {
-                    UUID uuid = UUID.fromString(uuidStr);
-                    String lang = langData.getString(uuidStr);
-                    userLang.put(uuid, lang);
-                });
-            }
+            identityCache.load(new File(getDataFolder(), "identities.json"));
         } catch (Exception e) {
-            getLogger().warning("Error loading data: " + e.getMessage());
+            getLogger().warning(e.getMessage());
         }
-    }
-
-    // 初期メッセージを設定
-    private void initMessages() {
-        Map<String, String> ja = new HashMap<>();
-        Map<String, String> en = new HashMap<>();
 
-        ja.put("usage_login", "使用方法: /bsky login <handle> <password>");
-        en.put("usage_login", "Usage: /bsky login <handle> <password>");
-
-        ja.put("usage_post", "使用方法: /bsky post <メッセージ>");
-        en.put("usage_post", "Usage: /bsky post <message>");
-
-        ja.put("usage_lang", "使用方法: /bsky lang <english|japanese>");
-        en.put("usage_lang", "Usage: /bsky lang <english|japanese>");
-
-        ja.put("must_login", "先にログインしてください！");
-        en.put("must_login", "Please login first!");
-
-        ja.put("login_success", "ログインに成功しました！");
-        en.put("login_success", "Login successful!");
-
-        ja.put("login_failed", "ログインに失敗しました。");
-        en.put("login_failed", "Login failed.");
+        // 旧形式の userdata.json があれば保存先に移行
+        playerStore.migrateLegacy(new File(getDataFolder(), "userdata.json").toPath());
+
+        // SQLiteに切り替えた場合は players/ のファイルを取り込む (一度だけ)
+        File playersDir = new File(getDataFolder(), "players");
+        if (playerStore.isShared() && playersDir.isDirectory()) {
+            try {
+                int imported = playerStore.importFrom(new JsonSessionStore(playersDir.toPath(), getLogger()));
+                Files.move(playersDir.toPath(), new File(getDataFolder(), "players.migrated").toPath());
+                getLogger().info(imported + "人分のユーザーデータを players/ から移行しました");
+            } catch (IOException e) {
+                getLogger().warning("players/ の移行に失敗しました: " + e.getMessage());
+            }
+        }
 
-        ja.put("post_success", "投稿に成功しました！");
-        en.put("post_success", "Post succeeded!");
+        // 前回送れなかった投稿を読み込んで送信を再開
+        postQueue.load(new File(getDataFolder(), "outbox.json").toPath());
 
-        ja.put("not_logged_in", "ログインしていません。");
-        en.put("not_logged_in", "You are not logged in.");
+        // リロード時など、既にオンラインのプレイヤーの分だけ読み込む
+        for (Player online : getServer().getOnlinePlayers()) {
+            playerStore.load(online.getUniqueId());
+        }
+    }
 
-        ja.put("logout_success", "ログアウトしました。");
-        en.put("logout_success", "Logged out.");
+    // ログアウトしたプレイヤーをメモリから外す (猶予期間の後にPlayerDataListenerから呼ばれる)
+    private void evictPlayer(UUID playerId) {
+        messages.invalidate(playerId);
+        timelinePages.invalidate(playerId);
+        feedIndex.invalidate(playerId);
+        typeahead.forget(playerId);
+        if (notificationPoller != null) {
+            notificationPoller.forget(playerId);
+        }
+        stopLive(playerId);
+        asyncRunner.execute(() -> playerStore.evict(playerId));
+    }
 
-        ja.put("invalid_command", "無効なコマンドです。");
-        en.put("invalid_command", "Invalid command.");
+    // 言語に基づいてメッセージを送信
+    private void sendLocalized(Player player, Message message, Object... args) {
+        reply(player, localize(player, message, args));
+    }
 
-        ja.put("timeline_header", "=== Blueskyタイムライン ===");
-        en.put("timeline_header", "=== Bluesky Timeline ===");
+    // 言語に基づいてメッセージを組み立てる
+    private String localize(Player player, Message message, Object... args) {
+        return language(player).format(message, args);
+    }
 
-        ja.put("timeline_failed", "タイムラインの取得に失敗しました。");
-        en.put("timeline_failed", "Failed to retrieve timeline.");
+    // プレイヤーの言語 (/bsky lang の設定、無ければクライアントの言語)
+    private MessageCatalog.Language language(Player player) {
+        UUID uuid = player.getUniqueId();
+        return messages.forPlayer(uuid, () -> playerStore.get(uuid).lang(), player::locale);
+    }
 
-        ja.put("feed_list_failed", "フィード一覧の取得に失敗しました。");
-        en.put("feed_list_failed", "Failed to retrieve feed list.");
+    // プレイヤーがオンラインならメッセージを送る (非同期の処理結果の通知用)
+    private void notifyPlayer(UUID playerId, Message message, Object... args) {
+        asyncRunner.sync(() -> {
+            Player player = getServer().getPlayer(playerId);
+            if (player != null) {
+                sendLocalized(player, message, args);
+            }
+        });
+    }
 
-        ja.put("lang_changed_en", "言語を英語に変更しました。/bsky lang japanese で日本語に戻せます。");
-        en.put("lang_changed_en", "Language changed to English. Use /bsky lang japanese to switch back.");
+    // 1つのComponentを1回のメッセージで送る
+    private void reply(Player player, Component message) {
+        asyncRunner.sync(() -> {
+            if (player.isOnline()) {
+                player.sendMessage(message);
+            }
+        });
+    }
 
-        ja.put("lang_changed_ja", "言語を日本語に変更しました。/bsky lang english で英語に切り替えられます。");
-        en.put("lang_changed_ja", "Language changed to Japanese. Use /bsky lang english to switch to English.");
+    // チャット送信はメインスレッドで行う
+    private void reply(Player player, String... lines) {
+        asyncRunner.sync(() -> {
+            if (!player.isOnline()) {
+                return;
+            }
+            for (String line : lines) {
+                player.sendMessage(line);
+            }
+        });
+    }
 
-        messages.put("japanese", ja);
-        messages.put("english", en);
+    // ハンドラで起きた例外をプレイヤーに伝える (Blueskyに繋がらない時は専用のメッセージ)
+    private void handleError(Player player, Exception e) {
+        if (e instanceof ServiceUnavailableException) {
+            sendLocalized(player, Message.SERVICE_UNAVAILABLE);
+        } else {
+            sendLocalized(player, Message.ERROR_OCCURRED, e.getMessage());
+        }
     }
 
-    // 言語に基づいてメッセージを送信
-    private void sendLocalized(Player player, String key, Object... args) {
-        UUID uuid = player.getUniqueId();
-        String lang = userLang.getOrDefault(uuid, "japanese");
-        Map<String, String> dict = messages.getOrDefault(lang, messages.get("japanese"));
-        String template = dict.getOrDefault(key, messages.get("english").getOrDefault(key, key));
-        try {
-            String msg = args == null || args.length == 0 ? template : String.format(template, args);
-            player.sendMessage(msg);
-        } catch (Exception e) {
-            player.sendMessage(template);
+    // ハンドラを非同期で実行する (同じプレイヤーのリクエストが処理中なら拒否)
+    private void runAsync(Player player, Runnable task) {
+        if (!asyncRunner.submit(player.getUniqueId(), task)) {
+            sendLocalized(player, Message.REQUEST_IN_PROGRESS);
         }
     }
 
-    // 言語切替処理
+    // 言語切替処理 (auto でクライアントの言語に戻す)
     private void handleLang(Player player, String langArg) {
-        String normalized = langArg.toLowerCase();
         UUID uuid = player.getUniqueId();
-        if (normalized.equals("english") || normalized.equals("en")) {
-            userLang.put(uuid, "english");
-            saveData();
-            sendLocalized(player, "lang_changed_en");
-        } else if (normalized.equals("japanese") || normalized.equals("ja") || normalized.equals("jp")) {
-            userLang.put(uuid, "japanese");
-            saveData();
-            sendLocalized(player, "lang_changed_ja");
-        } else {
-            sendLocalized(player, "usage_lang");
+        String code = langArg.equalsIgnoreCase("auto") ? null : messages.normalize(langArg);
+        if (code == null && !langArg.equalsIgnoreCase("auto")) {
+            sendLocalized(player, Message.USAGE_LANG, String.join("|", messages.codes()));
+            return;
+        }
+        playerStore.update(uuid, data -> data.withLang(code));
+        messages.invalidate(uuid);
+        sendLocalized(player, Message.LANG_CHANGED, language(player).name());
+    }
+
+    // 同梱の言語ファイルをデータフォルダにコピーする (編集用、既にあれば上書きしない)
+    private void saveLanguageFiles() {
+        for (String code : new String[]{"en", "ja"}) {
+            if (!new File(getDataFolder(), "lang/" + code + ".properties").exists()) {
+                saveResource("lang/" + code + ".properties", false);
+            }
         }
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // コマンド処理でメインスレッドを使った時間を記録する
+        long start = System.nanoTime();
+        try {
+            return dispatchCommand(sender, args);
+        } finally {
+            metrics.recordMainThread(System.nanoTime() - start);
+        }
+    }
+
+    private boolean dispatchCommand(CommandSender sender, String[] args) {
+        // 統計はコンソールからも見られるようにする
+        if (args.length >= 1 && args[0].equalsIgnoreCase("stats")) {
+            handleStats(sender);
+            return true;
+        }
+        if (args.length >= 1 && args[0].equalsIgnoreCase("reload")) {
+            handleReload(sender);
+            return true;
+        }
         if (!(sender instanceof Player)) {
-            sender.sendMessage("Only players can use this command.");
+            sender.sendMessage(messages.defaultLanguage().format(Message.PLAYERS_ONLY));
             return true;
         }
 
         Player player = (Player) sender;
         UUID playerId = player.getUniqueId();
+        if (notificationPoller != null) {
+            notificationPoller.touch(playerId);
+        }
 
         if (args.length == 0) {
-            player.sendMessage("使用方法: /bsky <login|logout|post|tl>");
+            sendLocalized(player, Message.USAGE);
             return true;
         }
 
         switch (args[0].toLowerCase()) {
             case "login":
                 if (args.length != 3) {
-                    sendLocalized(player, "usage_login");
+                    sendLocalized(player, Message.USAGE_LOGIN);
                     return true;
                 }
-                handleLogin(player, args[1], args[2]);
+                String loginHandle = args[1];
+                String password = args[2];
+                runAsync(player, () -> handleLogin(player, loginHandle, password));
                 break;
             case "logout":
                 handleLogout(player);
                 break;
             case "post":
-                if (!userTokens.containsKey(playerId)) {
-                    sendLocalized(player, "must_login");
+                if (!sessionManager.has(playerId)) {
+                    sendLocalized(player, Message.MUST_LOGIN);
                     return true;
                 }
-                if (args.length < 2) {
-                    sendLocalized(player, "usage_post");
+                // /bsky post [--map] [--image=<ファイル>] <メッセージ>
+                boolean map = false;
+                String imageName = null;
+                List<String> words = new ArrayList<>();
+                for (String word : Arrays.copyOfRange(args, 1, args.length)) {
+                    if (word.equalsIgnoreCase("--map")) {
+                        map = true;
+                    } else if (word.toLowerCase().startsWith("--image=") && word.length() > "--image=".length()) {
+                        imageName = word.substring("--image=".length());
+                    } else {
+                        words.add(word);
+                    }
+                }
+                if (words.isEmpty() && !map && imageName == null) {
+                    sendLocalized(player, Message.USAGE_POST);
+                    return true;
+                }
+                if ((map || imageName != null) && imagePipeline == null) {
+                    sendLocalized(player, Message.IMAGES_DISABLED);
                     return true;
                 }
-                String message = String.join(" ", java.util.Arrays.copyOfRange(args, 1, args.length));
-                handlePost(player, message);
+                String message = String.join(" ", words);
+                // ワールドに触るのはスナップショットを取るここだけ。描画はワーカーで行う
+                MapRenderer.Area area = map ? MapRenderer.capture(player.getLocation(), mapRadiusChunks) : null;
+                String image = imageName;
+                runAsync(player, () -> handlePost(player, message, area, image));
                 break;
             case "tl":
-                if (!userTokens.containsKey(playerId)) {
-                    sendLocalized(player, "must_login");
+                if (!sessionManager.has(playerId)) {
+                    sendLocalized(player, Message.MUST_LOGIN);
+                    return true;
+                }
+                // /bsky tl [ページ番号|more]
+                int page = 1;
+                if (args.length >= 2) {
+                    if (args[1].equalsIgnoreCase("more")) {
+                        page = Math.max(1, timelinePages.lastPage(playerId) + 1);
+                    } else {
+                        try {
+                            page = Integer.parseInt(args[1]);
+                        } catch (NumberFormatException e) {
+                            page = 0;
+                        }
+                    }
+                }
+                if (page < 1 || page > maxTimelinePage) {
+                    sendLocalized(player, Message.USAGE_TL);
+                    return true;
+                }
+                int pageNumber = page;
+                runAsync(player, () -> handleTimeline(player, pageNumber));
+                break;
+            case "feed":
+                if (!sessionManager.has(playerId)) {
+                    sendLocalized(player, Message.MUST_LOGIN);
+                    return true;
+                }
+                if (args.length < 2) {
+                    sendLocalized(player, Message.USAGE_FEED);
+                    return true;
+                }
+                if (args.length == 2 && args[1].equalsIgnoreCase("list")) {
+                    runAsync(player, () -> handleFeedList(player));
+                } else {
+                    String feedName = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+                    runAsync(player, () -> handleFeedTimeline(player, feedName));
+                }
+                break;
+            case "live":
+                if (!sessionManager.has(playerId)) {
+                    sendLocalized(player, Message.MUST_LOGIN);
+                    return true;
+                }
+                if (liveStream == null) {
+                    sendLocalized(player, Message.LIVE_DISABLED);
+                    return true;
+                }
+                // /bsky live [on|off] (省略時は切り替え)
+                boolean enable;
+                if (args.length == 1) {
+                    enable = !followerIndex.contains(playerId);
+                } else if (args[1].equalsIgnoreCase("on") || args[1].equalsIgnoreCase("off")) {
+                    enable = args[1].equalsIgnoreCase("on");
+                } else {
+                    sendLocalized(player, Message.USAGE_LIVE);
+                    return true;
+                }
+                if (enable) {
+                    runAsync(player, () -> handleLiveOn(player));
+                } else {
+                    stopLive(playerId);
+                    sendLocalized(player, Message.LIVE_OFF);
+                }
+                break;
+            case "autopost":
+                if (!sessionManager.has(playerId)) {
+                    sendLocalized(player, Message.MUST_LOGIN);
+                    return true;
+                }
+                if (autoPoster == null) {
+                    sendLocalized(player, Message.AUTOPOST_DISABLED);
                     return true;
                 }
-                handleTimeline(player);
+                // /bsky autopost [on|off] (省略時は切り替え)
+                boolean autoPost;
+                if (args.length == 1) {
+                    autoPost = !playerStore.get(playerId).autoPost();
+                } else if (args[1].equalsIgnoreCase("on") || args[1].equalsIgnoreCase("off")) {
+                    autoPost = args[1].equalsIgnoreCase("on");
+                } else {
+                    sendLocalized(player, Message.USAGE_AUTOPOST);
+                    return true;
+                }
+                playerStore.update(playerId, data -> data.withAutoPost(autoPost));
+                sendLocalized(player, autoPost ? Message.AUTOPOST_ON : Message.AUTOPOST_OFF);
                 break;
             case "lang":
                 if (args.length != 2) {
-                    sendLocalized(player, "usage_lang");
+                    sendLocalized(player, Message.USAGE_LANG, String.join("|", messages.codes()));
                     return true;
                 }
                 handleLang(player, args[1]);
                 break;
             default:
-                sendLocalized(player, "invalid_command");
+                sendLocalized(player, Message.INVALID_COMMAND);
                 break;
         }
         return true;
     }
 
+    // コンソールは既定の言語
+    private String localize(CommandSender sender, Message message, Object... args) {
+        return sender instanceof Player player ? localize(player, message, args)
+                : messages.defaultLanguage().format(message, args);
+    }
+
+    // 計測値を表示する (bluesky.stats 権限が必要)
+    private void handleStats(CommandSender sender) {
+        if (!sender.hasPermission("bluesky.stats")) {
+            sender.sendMessage(localize(sender, Message.NO_PERMISSION));
+            return;
+        }
+        sender.sendMessage(localize(sender, Message.STATS_HEADER));
+        for (String line : metrics.summary()) {
+            sender.sendMessage(line);
+        }
+    }
+
+    // 言語ファイルを読み直す (bluesky.reload 権限が必要)
+    private void handleReload(CommandSender sender) {
+        if (!sender.hasPermission("bluesky.reload")) {
+            sender.sendMessage(localize(sender, Message.NO_PERMISSION));
+            return;
+        }
+        asyncRunner.execute(() -> {
+            messages.reload();
+            asyncRunner.sync(() -> sender.sendMessage(localize(sender, Message.RELOAD_DONE)));
+        });
+    }
+
     private void handleLogin(Player player, String handle, String password) {
         try {
             // .bsky.socialを自動的に追加
@@ -308,337 +712,629 @@ public class BlueskyPlugin extends JavaPlugin {
             loginData.put("identifier", fullHandle);
             loginData.put("password", password);
 
-            URL url = new URL("https://bsky.social/xrpc/com.atproto.server.createSession");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
-
-            try (DataOutputStream wr = new DataOutputStream(conn.getOutputStream())) {
-                wr.write(loginData.toString().getBytes(StandardCharsets.UTF_8));
-            }
-
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-            }
-
-            JSONObject responseJson = new JSONObject(response.toString());
-            int responseCode = conn.getResponseCode();
-
-            if (responseCode == 200) {
-                String accessJwt = responseJson.getString("accessJwt");
-                userTokens.put(player.getUniqueId(), accessJwt);
-                // 常にフルハンドルを保存
-                userHandles.put(player.getUniqueId(), fullHandle);
-                // デフォルト言語がなければ日本語を設定
-                userLang.putIfAbsent(player.getUniqueId(), "japanese");
-                sendLocalized(player, "login_success");
+            XrpcResponse response = xrpc.post("com.atproto.server.createSession", null, loginData);
+
+            if (response.isOk()) {
+                JSONObject responseJson = response.json();
+                // アクセストークンとリフレッシュトークンの両方を保持する
+                String did = responseJson.getString("did");
+                Session session = Session.of(responseJson.getString("accessJwt"), responseJson.getString("refreshJwt"), did);
+                // createSessionのレスポンスに含まれるDIDをキャッシュしておく
+                identityCache.put(fullHandle, did);
+                identityCache.put(responseJson.optString("handle", fullHandle), did);
+                // 常にフルハンドルを保存する (言語の設定はそのまま)
+                playerStore.update(player.getUniqueId(), data -> new PlayerData(session, fullHandle, data.lang(), null, false));
+                sendLocalized(player, Message.LOGIN_SUCCESS);
+                // フィード索引は裏で作っておく
+                asyncRunner.execute(() -> refreshFeedIndex(player.getUniqueId()));
             } else {
-                sendLocalized(player, "login_failed");
+                sendLocalized(player, Message.LOGIN_FAILED);
             }
         } catch (Exception e) {
-            player.sendMessage("Error occurred: " + e.getMessage());
+            handleError(player, e);
         }
     }
 
-    private void handlePost(Player player, String text) {
+    private void handlePost(Player player, String text, MapRenderer.Area map, String imageName) {
+        Future<ImagePipeline.Prepared> mapImage = null;
+        Future<ImagePipeline.Prepared> fileImage = null;
+        List<PostQueue.Attachment> images = new ArrayList<>();
+        boolean queued = false;
         try {
-            String accessJwt = userTokens.get(player.getUniqueId());
-            String handle = userHandles.get(player.getUniqueId());
+            UUID playerId = player.getUniqueId();
+            String handle = playerStore.get(playerId).handle();
 
             // handleが完全な形式（.bsky.social付き）であることを確認
             if (!handle.contains(".")) {
                 handle = handle + ".bsky.social";
             }
             
-            // 最初にDIDを取得
-            URL profileUrl = new URL("https://bsky.social/xrpc/app.bsky.actor.getProfile?actor=" + handle);
-            HttpURLConnection profileConn = (HttpURLConnection) profileUrl.openConnection();
-            profileConn.setRequestMethod("GET");
-            profileConn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-            StringBuilder profileResponse = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(profileConn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    profileResponse.append(line);
+            // DIDはキャッシュから取得 (ログイン時に登録済みなら通信しない)
+            Session session = sessionManager.get(playerId);
+            String did = session != null && session.did() != null ? session.did() : resolveDid(playerId, handle);
+
+            JSONObject record = buildPostRecord(playerId, text);
+
+            // 画像はここで用意して送信キューに預け、送信の直前に uploadBlob する
+            if (map != null || imageName != null) {
+                Path file = imageName != null ? imagePipeline.screenshot(imageName) : null;
+                if (imageName != null && file == null) {
+                    sendLocalized(player, Message.IMAGE_NOT_FOUND, imageName);
+                    return;
+                }
+                // 地図の描画とファイルの縮小は並行して進める
+                mapImage = map != null ? imagePipeline.renderMap(map) : null;
+                fileImage = file != null ? imagePipeline.prepareFile(file) : null;
+                if (mapImage != null) {
+                    images.add(stageImage(mapImage,
+                            language(player).format(Message.IMAGE_MAP_ALT, player.getName(), map.centerX(), map.centerZ())));
                 }
+                if (fileImage != null) {
+                    images.add(stageImage(fileImage, imageName));
+                }
+            }
+
+            // 送信キューに入れる (結果は送信後に通知)
+            postQueue.enqueue(playerId, did, record, images);
+            queued = true;
+            sendLocalized(player, Message.POST_QUEUED);
+        } catch (RejectedExecutionException e) {
+            sendLocalized(player, Message.IMAGE_BUSY);
+        } catch (ImageException e) {
+            sendLocalized(player, Message.IMAGE_FAILED, e.getMessage());
+        } catch (Exception e) {
+            handleError(player, e);
+            getLogger().warning("投稿中にエラーが発生しました: " + e.getMessage());
+        } finally {
+            // キューに渡せなかった画像は、用意中のものも含めて片付ける
+            if (!queued) {
+                ImagePipeline.discard(mapImage);
+                ImagePipeline.discard(fileImage);
+                postQueue.discard(images);
             }
+        }
+    }
 
-            JSONObject profileJson = new JSONObject(profileResponse.toString());
-            String did = profileJson.getString("did");
+    // ワーカーで用意した画像を受け取り、送信キューの画像用のフォルダに移す
+    private PostQueue.Attachment stageImage(Future<ImagePipeline.Prepared> pending, String alt)
+            throws IOException {
+        ImagePipeline.Prepared image;
+        try {
+            image = pending.get();
+        } catch (ExecutionException e) {
+            throw new ImageException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        try {
+            return postQueue.stage(image.file(), image.temporary(), image.mimeType(), image.width(), image.height(), alt);
+        } finally {
+            if (image.temporary()) {
+                Files.deleteIfExists(image.file());
+            }
+        }
+    }
 
-            // 投稿データを作成
-            JSONObject postData = new JSONObject();
-            postData.put("repo", did);
-            postData.put("collection", "app.bsky.feed.post");
-            
-            JSONObject recordData = new JSONObject();
-            recordData.put("text", text);
-            recordData.put("createdAt", java.time.Instant.now().toString());
-            postData.put("record", recordData);
+    // 画像を用意できなかった (描画・縮小の失敗)
+    private static final class ImageException extends IOException {
+        private ImageException(String message) {
+            super(message);
+        }
+    }
 
-            URL url = new URL("https://bsky.social/xrpc/com.atproto.repo.createRecord");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
+    // 投稿データを作成する
+    private JSONObject buildPostRecord(UUID playerId, String text) throws IOException {
+        JSONObject recordData = new JSONObject();
+        recordData.put("text", text);
+        recordData.put("createdAt", Instant.now().toString());
+
+        // メンション・URL・タグをfacetにする (メンションのDIDはまとめて1回で解決)
+        List<FacetBuilder.Span> spans = FacetBuilder.parse(text);
+        if (!spans.isEmpty()) {
+            Map<String, String> dids = resolveDids(playerId, FacetBuilder.mentionedHandles(spans));
+            JSONArray facets = FacetBuilder.toFacets(spans, dids);
+            if (!facets.isEmpty()) {
+                recordData.put("facets", facets);
+            }
+        }
+        return recordData;
+    }
 
-            try (DataOutputStream wr = new DataOutputStream(conn.getOutputStream())) {
-                wr.write(postData.toString().getBytes(StandardCharsets.UTF_8));
+    // 自動投稿の準備 (出来事を拾うリスナーの登録と、サーバーのアカウントへのログイン)
+    private void startAutoPost() {
+        Map<AutoPoster.Kind, Long> windows = new EnumMap<>(AutoPoster.Kind.class);
+        windows.put(AutoPoster.Kind.ADVANCEMENT, getConfig().getLong("autopost.windows.advancement-seconds", 60) * 1000);
+        windows.put(AutoPoster.Kind.BOSS, getConfig().getLong("autopost.windows.boss-seconds", 30) * 1000);
+        windows.put(AutoPoster.Kind.MILESTONE, getConfig().getLong("autopost.windows.milestone-seconds", 300) * 1000);
+        autoPoster = new AutoPoster(this::routeAutoPost, this::publishAutoPost, messages::defaultLanguage, windows,
+                Duration.ofMinutes(getConfig().getLong("autopost.dedupe-minutes", 60)).toMillis(), getLogger(), metrics);
+
+        Set<EntityType> bosses = EnumSet.noneOf(EntityType.class);
+        for (String name : getConfig().getStringList("autopost.bosses")) {
+            try {
+                bosses.add(EntityType.valueOf(name.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                getLogger().warning("autopost.bosses: 不明なエンティティです: " + name);
             }
+        }
+        getServer().getPluginManager().registerEvents(new AutoPostListener(autoPoster,
+                getConfig().getBoolean("autopost.advancements", true), bosses,
+                new HashSet<>(getConfig().getIntegerList("autopost.online-milestones")),
+                () -> getServer().getOnlinePlayers().size()), this);
+
+        // サーバーのアカウント (設定が無ければ、オンにしたプレイヤーの出来事だけを投稿する)
+        String handle = getConfig().getString("autopost.server-account.handle", "");
+        String password = getConfig().getString("autopost.server-account.app-password", "");
+        if (!handle.isBlank() && !password.isBlank()) {
+            asyncRunner.execute(() -> loginServerAccount(handle, password));
+        }
+    }
 
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                    conn.getResponseCode() == 200 ? conn.getInputStream() : conn.getErrorStream(), 
-                    StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
+    // 保存済みのセッションが同じハンドルのものならそのまま使い、無ければ createSession でログインする
+    private void loginServerAccount(String handle, String password) {
+        PlayerData data = playerStore.load(SERVER_ACCOUNT);
+        if (data.session() != null && handle.equals(data.handle())) {
+            return;
+        }
+        try {
+            JSONObject loginData = new JSONObject();
+            loginData.put("identifier", handle);
+            loginData.put("password", password);
+            JSONObject json = xrpc.post("com.atproto.server.createSession", null, loginData).requireOk().json();
+            String did = json.getString("did");
+            identityCache.put(handle, did);
+            playerStore.update(SERVER_ACCOUNT, current -> new PlayerData(
+                    Session.of(json.getString("accessJwt"), json.getString("refreshJwt"), did), handle, null, null, false));
+            getLogger().info("自動投稿用のアカウントにログインしました: " + handle);
+        } catch (Exception e) {
+            getLogger().warning("自動投稿用のアカウントにログインできませんでした: " + e.getMessage());
+        }
+    }
+
+    // 出来事の投稿先: 自動投稿をオンにしたプレイヤーは本人のアカウント、それ以外はサーバーのアカウント
+    private UUID routeAutoPost(AutoPoster.GameEvent event) {
+        UUID playerId = event.playerId();
+        if (playerId != null && playerStore.get(playerId).autoPost() && sessionManager.has(playerId)) {
+            return playerId;
+        }
+        return sessionManager.has(SERVER_ACCOUNT) ? SERVER_ACCOUNT : null;
+    }
+
+    // まとめた本文を送信キューに入れる (複数なら1回の applyWrites になる)
+    private void publishAutoPost(UUID account, List<String> texts) throws IOException {
+        // 窓が閉じる前に退出してメモリから外れていることがあるので、使う間だけ読み込む
+        sessionManager.borrow(account);
+        try {
+            Session session = sessionManager.get(account);
+            if (session == null) {
+                throw new IOException("Not logged in");
+            }
+            String did = session.did() != null ? session.did() : resolveDid(account, playerStore.get(account).handle());
+            List<JSONObject> records = new ArrayList<>();
+            for (String text : texts) {
+                records.add(buildPostRecord(account, text));
             }
+            postQueue.enqueueSilently(account, did, records);
+        } finally {
+            sessionManager.release(account);
+        }
+    }
+
+    // ハンドルをDIDに変換する (キャッシュに無ければresolveHandleで解決して登録)
+    private String resolveDid(UUID playerId, String handle) throws IOException {
+        if (handle.startsWith("did:")) {
+            return handle;
+        }
+        String did = identityCache.get(handle);
+        if (did != null) {
+            metrics.cacheHit("identity");
+        } else {
+            metrics.cacheMiss("identity");
+            did = sessionManager.call(playerId, jwt -> xrpc.get("com.atproto.identity.resolveHandle", jwt, "handle", handle))
+                    .requireOk().json().getString("did");
+            identityCache.put(handle, did);
+        }
+        return did;
+    }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode == 200) {
-                sendLocalized(player, "post_success");
+    // 複数のハンドルをDIDに変換する。キャッシュに無いものは getProfiles (1回25件まで) でまとめて解決する
+    // 見つからなかったハンドルは結果に含めない
+    private Map<String, String> resolveDids(UUID playerId, Collection<String> handles) throws IOException {
+        Map<String, String> dids = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String handle : handles) {
+            String did = identityCache.get(handle);
+            if (did != null) {
+                metrics.cacheHit("identity");
+                dids.put(handle, did);
             } else {
-                player.sendMessage("Post failed. Error: " + response.toString());
+                metrics.cacheMiss("identity");
+                missing.add(handle);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += MAX_PROFILES_PER_REQUEST) {
+            List<String> batch = missing.subList(from, Math.min(missing.size(), from + MAX_PROFILES_PER_REQUEST));
+            // getProfiles は actors=... を繰り返して渡す
+            String[] params = new String[batch.size() * 2];
+            for (int i = 0; i < batch.size(); i++) {
+                params[i * 2] = "actors";
+                params[i * 2 + 1] = batch.get(i);
+            }
+            JSONArray profiles = sessionManager.call(playerId, jwt -> xrpc.get("app.bsky.actor.getProfiles", jwt, params))
+                    .requireOk().json().optJSONArray("profiles", new JSONArray());
+            for (int i = 0; i < profiles.length(); i++) {
+                JSONObject profile = profiles.getJSONObject(i);
+                String handle = profile.optString("handle", "").toLowerCase(Locale.ROOT);
+                String did = profile.optString("did", null);
+                if (did != null && batch.contains(handle)) {
+                    dids.put(handle, did);
+                    identityCache.put(handle, did);
+                }
             }
-        } catch (Exception e) {
-            player.sendMessage("Error occurred: " + e.getMessage());
-            getLogger().warning("投稿中にエラーが発生しました: " + e.getMessage());
         }
+        return dids;
     }
 
     private void handleLogout(Player player) {
         UUID playerId = player.getUniqueId();
-        if (!userTokens.containsKey(playerId)) {
-            sendLocalized(player, "not_logged_in");
+        if (!sessionManager.has(playerId)) {
+            sendLocalized(player, Message.NOT_LOGGED_IN);
             return;
         }
         
-        userTokens.remove(playerId);
-        userHandles.remove(playerId);
-        // 変更をファイルに保存
-        saveData();
-        sendLocalized(player, "logout_success");
+        // 言語設定だけ残してファイルに保存
+        playerStore.update(playerId, data -> data.withSession(null).withHandle(null).withSeenAt(null).withAutoPost(false));
+        stopLive(playerId);
+        timelinePages.invalidate(playerId);
+        feedIndex.invalidate(playerId);
+        if (postCache != null) {
+            asyncRunner.execute(() -> forgetTimeline(playerId));
+        }
+        sendLocalized(player, Message.LOGOUT_SUCCESS);
     }
 
-    private void handleTimeline(Player player) {
+    private void handleTimeline(Player player, int pageNumber) {
         try {
-            String accessJwt = userTokens.get(player.getUniqueId());
-
-            URL url = new URL("https://bsky.social/xrpc/app.bsky.feed.getTimeline");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-            }
-
-            JSONObject responseJson = new JSONObject(response.toString());
-            int responseCode = conn.getResponseCode();
-
-            if (responseCode == 200) {
-                sendLocalized(player, "timeline_header");
-                responseJson.getJSONArray("feed").forEach(post -> {
-                    JSONObject postObj = (JSONObject) post;
-                    JSONObject postView = postObj.getJSONObject("post");
-                    JSONObject author = postView.getJSONObject("author");
-                    String displayName = author.getString("displayName");
-                    String handle = author.getString("handle");
-                    String text = postView.getJSONObject("record").getString("text");
-                    player.sendMessage("§6" + displayName + " §b(@" + handle + ")§r: " + text);
-                });
-            } else {
-                sendLocalized(player, "timeline_failed");
+            UUID playerId = player.getUniqueId();
+
+            // 1ページ目がメモリに無ければ、ディスクに残っている分をすぐに表示してから新しい投稿だけを取りに行く
+            if (pageNumber == 1 && postCache != null && timelinePages.get(playerId, null) == null) {
+                TimelinePageCache.Page saved = postCache.timeline(playerId);
+                if (saved != null) {
+                    showSavedTimeline(player, saved);
+                    return;
+                }
+            }
+
+            // 1ページ目からカーソルをたどる (キャッシュにあるページは通信しない)
+            String cursor = null;
+            TimelinePageCache.Page page = null;
+            for (int n = 1; n <= pageNumber; n++) {
+                if (n > 1) {
+                    cursor = page.nextCursor();
+                    if (cursor == null) {
+                        sendLocalized(player, Message.TIMELINE_NO_MORE);
+                        return;
+                    }
+                }
+                page = loadTimelinePage(playerId, cursor);
+                if (page == null) {
+                    sendLocalized(player, Message.TIMELINE_FAILED);
+                    return;
+                }
             }
+
+            timelinePages.setLastPage(playerId, pageNumber);
+            // ページ全体をここで1つのComponentにして、メインスレッドでは送るだけにする
+            MessageCatalog.Language language = language(player);
+            reply(player, postRenderer.render(language.format(Message.TIMELINE_HEADER), page.posts(),
+                    page.nextCursor() != null ? language.format(Message.TIMELINE_PAGE, pageNumber) : null,
+                    language.format(Message.POST_OPEN_HINT)));
         } catch (Exception e) {
-            player.sendMessage("Error occurred: " + e.getMessage());
+            handleError(player, e);
         }
     }
 
-    private void handleFeedList(Player player) {
+    // 保存してあったタイムラインを表示し、取得し直して先頭より新しい投稿だけを続けて送る
+    // Blueskyに接続できなければ、保存してあった内容がいつのものかを伝えるだけにする
+    private void showSavedTimeline(Player player, TimelinePageCache.Page saved) {
+        UUID playerId = player.getUniqueId();
+        MessageCatalog.Language language = language(player);
+        long minutes = Duration.ofMillis(Math.max(0, System.currentTimeMillis() - saved.fetchedAt())).toMinutes();
+        timelinePages.setLastPage(playerId, 1);
+        reply(player, postRenderer.render(language.format(Message.TIMELINE_HEADER), saved.posts(),
+                language.format(Message.TIMELINE_CACHED, minutes), language.format(Message.POST_OPEN_HINT)));
+
+        // 「古い」と伝えるのは繋がらなかった時だけ。ログイン切れやPDSに断られた時はそれを伝える
+        TimelinePageCache.Page page;
         try {
-            String accessJwt = userTokens.get(player.getUniqueId());
-
-            // 保存済みフィードを取得
-            URL savedFeedsUrl = new URL("https://bsky.social/xrpc/app.bsky.feed.getFeedGenerators");
-            HttpURLConnection savedFeedsConn = (HttpURLConnection) savedFeedsUrl.openConnection();
-            savedFeedsConn.setRequestMethod("GET");
-            savedFeedsConn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-            StringBuilder savedFeedsResponse = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(savedFeedsConn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    savedFeedsResponse.append(line);
-                }
-            }
-
-            // 保存済みフィードの表示
-            JSONObject savedFeedsJson = new JSONObject(savedFeedsResponse.toString());
-            player.sendMessage("=== 保存済みカスタムフィード ===");
-            List<String> feedNames = new ArrayList<>();
-            savedFeedsJson.getJSONArray("feeds").forEach(feed -> {
-                JSONObject feedObj = (JSONObject) feed;
-                JSONObject generator = feedObj.getJSONObject("generator");
-                String feedName = generator.getString("displayName");
-                String uri = generator.getString("uri");
-                feedNames.add(feedName);
-                player.sendMessage("- " + feedName + " (URI: " + uri + ")");
-            });
-            
-            // フィード名をキャッシュ
-            userFeeds.put(player.getUniqueId(), feedNames);
-
-            // ユーザーの作成したフィードを取得
-            String handle = userHandles.get(player.getUniqueId());
-            URL url = new URL("https://bsky.social/xrpc/app.bsky.feed.getActorFeeds?actor=" + handle + "&limit=100");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
-            }
-
-            JSONObject responseJson = new JSONObject(response.toString());
-            int responseCode = conn.getResponseCode();
-
-            if (responseCode == 200) {
-                player.sendMessage("\n=== Created custom feeds ===");
-                responseJson.getJSONArray("feeds").forEach(feed -> {
-                    JSONObject feedObj = (JSONObject) feed;
-                    String feedName = feedObj.getString("displayName");
-                    String uri = feedObj.getString("uri");
-                    player.sendMessage("- " + feedName + " (URI: " + uri + ")");
-                });
+            page = loadTimelinePage(playerId, null);
+        } catch (IOException e) {
+            if (sessionManager.get(playerId) == null) {
+                sendLocalized(player, Message.MUST_LOGIN);
             } else {
-                sendLocalized(player, "feed_list_failed");
+                sendLocalized(player, Message.TIMELINE_STALE, minutes);
+            }
+            return;
+        }
+        if (page == null) {
+            // loadTimelinePage はPDSがエラーを返した時 (XrpcException) に null を返す
+            sendLocalized(player, sessionManager.get(playerId) == null ? Message.MUST_LOGIN : Message.TIMELINE_FAILED);
+            return;
+        }
+        Set<String> shown = new HashSet<>();
+        for (Post post : saved.posts()) {
+            shown.add(post.uri());
+        }
+        List<Post> newer = new ArrayList<>();
+        for (Post post : page.posts()) {
+            if (shown.contains(post.uri())) {
+                break;
+            }
+            newer.add(post);
+        }
+        if (!newer.isEmpty()) {
+            reply(player, postRenderer.render(language.format(Message.TIMELINE_NEW, newer.size()), newer,
+                    page.nextCursor() != null ? language.format(Message.TIMELINE_PAGE, 1) : null,
+                    language.format(Message.POST_OPEN_HINT)));
+        }
+    }
+
+    private void forgetTimeline(UUID playerId) {
+        try {
+            postCache.forget(playerId);
+        } catch (IOException e) {
+            getLogger().warning("投稿キャッシュを更新できませんでした: " + e.getMessage());
+        }
+    }
+
+    // タイムラインの1ページを取得する (キャッシュに無い場合だけgetTimelineを呼ぶ)
+    private TimelinePageCache.Page loadTimelinePage(UUID playerId, String cursor) throws IOException {
+        TimelinePageCache.Page cached = timelinePages.get(playerId, cursor);
+        if (cached != null) {
+            metrics.cacheHit("timeline");
+            return cached;
+        }
+        metrics.cacheMiss("timeline");
+
+        FeedDecoder.FeedPage feed;
+        try {
+            feed = sessionManager.call(playerId, jwt -> xrpc.getStreaming("app.bsky.feed.getTimeline", jwt,
+                    FeedDecoder::decodeFeed, "limit", timelineLimit, "cursor", cursor));
+        } catch (XrpcException e) {
+            return null;
+        }
+
+        TimelinePageCache.Page page = new TimelinePageCache.Page(
+                feed.posts(), feed.cursor(), System.currentTimeMillis());
+        timelinePages.put(playerId, cursor, page);
+        // 先頭ページは次に参加した時にすぐ表示できるようにディスクにも残す
+        if (cursor == null && postCache != null) {
+            try {
+                postCache.putTimeline(playerId, page);
+            } catch (IOException e) {
+                getLogger().warning("投稿キャッシュに書き込めませんでした: " + e.getMessage());
             }
+        }
+        return page;
+    }
+
+    // カスタムフィードを取得する
+    // 閲覧者に依存しないフィードは、同時に開いたプレイヤー間で1回の取得を共有し、短時間キャッシュする
+    // (FeedPageにはviewerブロックなど閲覧者ごとの情報は含まれない)
+    private FeedDecoder.FeedPage fetchFeed(UUID playerId, String feedUri) throws IOException {
+        if (personalizedFeeds.contains(feedUri)) {
+            return sessionManager.call(playerId, jwt -> xrpc.getStreaming(
+                    "app.bsky.feed.getFeed", jwt, FeedDecoder::decodeFeed, "feed", feedUri));
+        }
+        // 共有の取得は最初に頼んだプレイヤーのセッションで行う。そのセッションが切れていた場合、待っていた他のプレイヤーは自分のセッションで取り直す
+        String key = RequestCoalescer.key("app.bsky.feed.getFeed", "feed", feedUri);
+        return sharedFeeds.get(key, () -> sessionManager.call(playerId, jwt -> xrpc.getStreaming(
+                "app.bsky.feed.getFeed", jwt, FeedDecoder::decodeFeed, "feed", feedUri)), SessionManager::isSessionError);
+    }
+
+    // フィード索引を作り直す (Tab補完のフィード名もここから取る)
+    private void refreshFeedIndex(UUID playerId) {
+        try {
+            feedIndex.build(playerId, feedActor(playerId));
         } catch (Exception e) {
-            player.sendMessage("Error occurred: " + e.getMessage());
+            getLogger().warning("フィード索引の作成に失敗しました (" + playerId + "): " + e.getMessage());
         }
     }
 
-    private void handleFeedTimeline(Player player, String feedUri) {
+    // ライブ表示をオンにする (フォロー一覧を読み込んで索引に入れ、ストリームに接続する)
+    // フォロー一覧の読み込みは最大で数十回の呼び出しになるので、その間にオフ・ログアウト・退出されていたら登録しない
+    private void handleLiveOn(Player player) {
+        UUID playerId = player.getUniqueId();
+        synchronized (liveEnabling) {
+            liveEnabling.add(playerId);
+        }
         try {
-            String accessJwt = userTokens.get(player.getUniqueId());
-
-            // 全保存済みフィードから該当するフィードを探す
-            URL savedFeedsUrl = new URL("https://bsky.social/xrpc/app.bsky.feed.getFeedGenerators");
-            HttpURLConnection savedFeedsConn = (HttpURLConnection) savedFeedsUrl.openConnection();
-            savedFeedsConn.setRequestMethod("GET");
-            savedFeedsConn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-            String targetUri = null;
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(savedFeedsConn.getInputStream(), StandardCharsets.UTF_8))) {
-                JSONObject savedFeeds = new JSONObject(br.lines().collect(java.util.stream.Collectors.joining()));
-                JSONArray feeds = savedFeeds.getJSONArray("feeds");
-                for (int i = 0; i < feeds.length(); i++) {
-                    JSONObject feed = feeds.getJSONObject(i);
-                    JSONObject generator = feed.getJSONObject("generator");
-                    String uri = generator.getString("uri");
-                    if (uri.contains(feedUri) || generator.getString("displayName").equalsIgnoreCase(feedUri)) {
-                        targetUri = uri;
-                        break;
-                    }
+            Map<String, FollowerIndex.Author> follows = loadFollows(playerId);
+            synchronized (liveEnabling) {
+                if (!liveEnabling.remove(playerId)) {
+                    return;
                 }
+                followerIndex.put(playerId, follows);
+                liveStream.start();
             }
+            sendLocalized(player, Message.LIVE_ON, follows.size());
+        } catch (Exception e) {
+            synchronized (liveEnabling) {
+                liveEnabling.remove(playerId);
+            }
+            if (e instanceof ServiceUnavailableException) {
+                handleError(player, e);
+            } else {
+                sendLocalized(player, Message.LIVE_FAILED, e.getMessage());
+            }
+        }
+    }
 
-            // 保存済みフィードで見つからない場合は、ユーザーの作成したフィードから探す
-            if (targetUri == null) {
-                String handle = userHandles.get(player.getUniqueId());
-                URL listUrl = new URL("https://bsky.social/xrpc/app.bsky.feed.getActorFeeds?actor=" + handle);
-                HttpURLConnection listConn = (HttpURLConnection) listUrl.openConnection();
-                listConn.setRequestMethod("GET");
-                listConn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(listConn.getInputStream(), StandardCharsets.UTF_8))) {
-                    JSONObject feedList = new JSONObject(br.lines().collect(java.util.stream.Collectors.joining()));
-                    JSONArray feeds = feedList.getJSONArray("feeds");
-                    for (int i = 0; i < feeds.length(); i++) {
-                        JSONObject feed = feeds.getJSONObject(i);
-                        if (feed.getString("displayName").equalsIgnoreCase(feedUri)) {
-                            targetUri = feed.getString("uri");
-                            break;
-                        }
-                    }
+    // ライブ表示中のプレイヤーのフォロー一覧を取り直す (読み込んでいる間にオフにされたら登録しない)
+    private void refreshFollows(UUID playerId) {
+        try {
+            Map<String, FollowerIndex.Author> follows = loadFollows(playerId);
+            synchronized (liveEnabling) {
+                if (followerIndex.contains(playerId)) {
+                    followerIndex.put(playerId, follows);
                 }
+            }
+        } catch (Exception e) {
+            getLogger().warning("フォロー一覧の取得に失敗しました (" + playerId + "): " + e.getMessage());
+        }
+    }
 
-                if (targetUri != null) {
-                    feedUri = targetUri;
-                } else {
-                    // フィード名が見つからない場合は、ハンドルとしてDIDに変換を試みる
-                    try {
-                        URL profileUrl = new URL("https://bsky.social/xrpc/app.bsky.actor.getProfile?actor=" + feedUri.split("/")[0]);
-                        HttpURLConnection profileConn = (HttpURLConnection) profileUrl.openConnection();
-                        profileConn.setRequestMethod("GET");
-                        profileConn.setRequestProperty("Authorization", "Bearer " + accessJwt);
-
-                        try (BufferedReader br = new BufferedReader(new InputStreamReader(profileConn.getInputStream(), StandardCharsets.UTF_8))) {
-                            JSONObject profile = new JSONObject(br.lines().collect(java.util.stream.Collectors.joining()));
-                            String did = profile.getString("did");
-                            feedUri = "at://" + did + "/" + String.join("/", java.util.Arrays.copyOfRange(feedUri.split("/"), 1, feedUri.split("/").length));
-                        }
-                    } catch (Exception e) {
-                        player.sendMessage("フィードの検索中にエラーが発生しました: " + e.getMessage());
-                        return;
-                    }
+    // フォロー一覧 (getFollows) を live.max-follows 件まで読み込む
+    private Map<String, FollowerIndex.Author> loadFollows(UUID playerId) throws IOException {
+        String actor = feedActor(playerId);
+        Map<String, FollowerIndex.Author> follows = new HashMap<>();
+        String cursor = null;
+        do {
+            String[] params = cursor == null
+                    ? new String[]{"actor", actor, "limit", "100"}
+                    : new String[]{"actor", actor, "limit", "100", "cursor", cursor};
+            JSONObject json = sessionManager.call(playerId, jwt -> xrpc.get("app.bsky.graph.getFollows", jwt, params))
+                    .requireOk().json();
+            JSONArray page = json.optJSONArray("follows", new JSONArray());
+            for (int i = 0; i < page.length(); i++) {
+                JSONObject follow = page.getJSONObject(i);
+                String did = follow.optString("did", null);
+                if (did != null) {
+                    follows.put(did, new FollowerIndex.Author(follow.optString("handle", did),
+                            follow.optString("displayName", null)));
                 }
             }
+            cursor = page.isEmpty() ? null : json.optString("cursor", null);
+        } while (cursor != null && follows.size() < maxLiveFollows);
+        return follows;
+    }
 
-            URL url = new URL("https://bsky.social/xrpc/app.bsky.feed.getFeed?feed=" + java.net.URLEncoder.encode(feedUri, "UTF-8"));
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Authorization", "Bearer " + accessJwt);
+    private void stopLive(UUID playerId) {
+        if (followerIndex == null) {
+            return;
+        }
+        synchronized (liveEnabling) {
+            liveEnabling.remove(playerId);
+            followerIndex.remove(playerId);
+            if (followerIndex.isEmpty()) {
+                liveStream.stop();
+            }
+        }
+    }
 
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    response.append(line);
-                }
+    // ストリームの投稿を、その投稿者をフォローしているオンラインのプレイヤーだけに送る (WebSocketのスレッドで呼ばれる)
+    private void deliverLivePost(JetstreamClient.PostEvent event) {
+        FollowerIndex.Author author = followerIndex.author(event.did());
+        Post post = new Post(event.uri(), author != null ? author.handle() : event.did(),
+                author != null ? author.displayName() : null, event.text(), event.createdAt());
+        for (UUID playerId : followerIndex.followers(event.did())) {
+            Player player = getServer().getPlayer(playerId);
+            if (player == null) {
+                continue;
             }
+            MessageCatalog.Language language = language(player);
+            reply(player, postRenderer.renderLabeled(language.format(Message.LIVE_LABEL), post,
+                    language.format(Message.POST_OPEN_HINT)));
+            metrics.increment("live_delivered");
+        }
+    }
 
-            JSONObject responseJson = new JSONObject(response.toString());
-            int responseCode = conn.getResponseCode();
+    // @ハンドルの補完候補を検索する (見つかったハンドルのDIDは投稿時のために覚えておく)
+    private List<String> searchHandles(UUID playerId, String prefix, int limit) throws IOException {
+        JSONObject json = sessionManager.call(playerId, jwt -> xrpc.get("app.bsky.actor.searchActorsTypeahead", jwt,
+                "q", prefix, "limit", String.valueOf(limit))).requireOk().json();
+        JSONArray actors = json.optJSONArray("actors", new JSONArray());
+        List<String> handles = new ArrayList<>(actors.length());
+        for (int i = 0; i < actors.length(); i++) {
+            JSONObject actor = actors.getJSONObject(i);
+            String handle = actor.optString("handle", "");
+            if (!handle.isEmpty() && !handle.equals("handle.invalid")) {
+                handles.add(handle);
+                identityCache.put(handle, actor.optString("did", null));
+            }
+        }
+        return handles;
+    }
 
-            if (responseCode == 200) {
-                player.sendMessage("=== カスタムフィード: " + feedUri + " ===");
-                responseJson.getJSONArray("feed").forEach(post -> {
-                    try {
-                        JSONObject postObj = (JSONObject) post;
-                        JSONObject postView = postObj.getJSONObject("post");
-                        JSONObject author = postView.getJSONObject("author");
-                        String displayName = author.getString("displayName");
-                        String handle = author.getString("handle");
-                        String text = postView.getJSONObject("record").getString("text");
-                        player.sendMessage("§6" + displayName + " (@" + handle + ")§r: " + text);
-                    } catch (Exception e) {
-                        player.sendMessage("投稿の解析中にエラーが発生しました: " + e.getMessage());
-                    }
-                });
+    // フィード一覧の取得に使うアクター (DIDが分かっていればDID)
+    private String feedActor(UUID playerId) {
+        Session session = sessionManager.get(playerId);
+        return session != null && session.did() != null ? session.did() : playerStore.get(playerId).handle();
+    }
+
+    private void handleFeedList(Player player) {
+        try {
+            UUID playerId = player.getUniqueId();
+            FeedIndex.Index index;
+            try {
+                index = feedIndex.getOrBuild(playerId, feedActor(playerId));
+            } catch (XrpcException e) {
+                sendLocalized(player, Message.FEED_LIST_FAILED);
+                return;
+            }
+
+            List<String> lines = new ArrayList<>();
+            MessageCatalog.Language language = language(player);
+            lines.add(language.format(Message.FEED_LIST_SAVED));
+            for (FeedDecoder.Generator generator : index.saved()) {
+                lines.add(language.format(Message.FEED_LIST_ENTRY, generator.displayName(), generator.uri()));
+            }
+            lines.add(language.format(Message.FEED_LIST_CREATED));
+            for (FeedDecoder.Generator generator : index.created()) {
+                lines.add(language.format(Message.FEED_LIST_ENTRY, generator.displayName(), generator.uri()));
+            }
+            reply(player, lines.toArray(new String[0]));
+        } catch (Exception e) {
+            handleError(player, e);
+        }
+    }
+
+    private void handleFeedTimeline(Player player, String feedName) {
+        try {
+            UUID playerId = player.getUniqueId();
+
+            // 索引から表示名でAT-URIを引く (索引が無ければ作る)
+            String feedUri;
+            FeedDecoder.Generator generator = feedIndex.getOrBuild(playerId, feedActor(playerId)).find(feedName);
+            if (generator != null) {
+                feedUri = generator.uri();
+            } else if (feedName.startsWith("at://")) {
+                feedUri = feedName;
+            } else if (feedName.contains("/")) {
+                // handle/rkey 形式ならハンドルをDIDに変換する
+                try {
+                    String[] parts = feedName.split("/");
+                    String did = resolveDid(playerId, parts[0]);
+                    String rkey = parts[parts.length - 1];
+                    feedUri = "at://" + did + "/app.bsky.feed.generator/" + rkey;
+                } catch (ServiceUnavailableException e) {
+                    sendLocalized(player, Message.SERVICE_UNAVAILABLE);
+                    return;
+                } catch (Exception e) {
+                    sendLocalized(player, Message.FEED_SEARCH_FAILED, e.getMessage());
+                    return;
+                }
             } else {
-                player.sendMessage("フィードの取得に失敗しました。");
+                sendLocalized(player, Message.FEED_NOT_FOUND, feedName);
+                return;
             }
+
+            FeedDecoder.FeedPage feed;
+            try {
+                feed = fetchFeed(playerId, feedUri);
+            } catch (XrpcException e) {
+                sendLocalized(player, Message.FEED_FAILED);
+                return;
+            }
+
+            MessageCatalog.Language language = language(player);
+            reply(player, postRenderer.render(
+                    language.format(Message.FEED_HEADER, generator != null ? generator.displayName() : feedUri),
+                    feed.posts(), null, language.format(Message.POST_OPEN_HINT)));
         } catch (Exception e) {
-            player.sendMessage("エラーが発生しました: " + e.getMessage());
+            handleError(player, e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+package com.example.blueskyplugin;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// /bsky のTab補完
+// PaperのAsyncTabCompleteEventでメインスレッドの外で補完し、@ハンドルは searchActorsTypeahead で候補を出す
+// 通常のTabCompleterとしても登録しておき、そちらではキャッシュにある候補だけを返す (通信しない)
+public class BskyTabCompleter implements TabCompleter, Listener {
+    private static final String[] SUBCOMMANDS = {"login", "logout", "post", "tl", "lang", "feed", "live", "autopost", "stats", "reload"};
+
+    private final PluginCommand command;
+    private final MessageCatalog messages;
+    private final FeedIndex feedIndex;
+    private final SessionManager sessionManager;
+    private final HandleTypeahead typeahead;
+    // 画像の添付が無効ならnull
+    private final ImagePipeline images;
+    // 索引がまだ無いプレイヤーのフィード索引をバックグラウンドで作る
+    private final Consumer<UUID> requestFeedIndex;
+
+    public BskyTabCompleter(PluginCommand command, MessageCatalog messages, FeedIndex feedIndex,
+                            SessionManager sessionManager, HandleTypeahead typeahead, ImagePipeline images,
+                            Consumer<UUID> requestFeedIndex) {
+        this.command = command;
+        this.messages = messages;
+        this.feedIndex = feedIndex;
+        this.sessionManager = sessionManager;
+        this.typeahead = typeahead;
+        this.images = images;
+        this.requestFeedIndex = requestFeedIndex;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!(sender instanceof Player player)) {
+            return new ArrayList<>();
+        }
+        return complete(player, args, false);
+    }
+
+    // チャット欄の入力ごとにNettyのスレッドで呼ばれる (他の接続のパケット処理も止まるので、ここでは待たない)
+    @EventHandler(ignoreCancelled = true)
+    public void onAsyncTabComplete(AsyncTabCompleteEvent event) {
+        if (event.isHandled() || !event.isCommand() || !(event.getSender() instanceof Player player)) {
+            return;
+        }
+        String buffer = event.getBuffer();
+        if (buffer.startsWith("/")) {
+            buffer = buffer.substring(1);
+        }
+        int space = buffer.indexOf(' ');
+        // コマンド名の補完はサーバーに任せる
+        if (space < 0 || !isOurLabel(buffer.substring(0, space)) || !command.testPermissionSilent(player)) {
+            return;
+        }
+        String[] args = buffer.substring(space + 1).split(" ", -1);
+        event.setCompletions(complete(player, args, true));
+        event.setHandled(true);
+    }
+
+    private boolean isOurLabel(String label) {
+        String name = label.toLowerCase(Locale.ROOT);
+        int colon = name.indexOf(':');
+        if (colon >= 0) {
+            name = name.substring(colon + 1);
+        }
+        if (name.equals(command.getName())) {
+            return true;
+        }
+        List<String> aliases = command.getAliases();
+        return aliases != null && aliases.stream().anyMatch(name::equalsIgnoreCase);
+    }
+
+    // async: 問い合わせを予約してよいか (AsyncTabCompleteEventから呼ばれた場合のみ。どちらも結果は待たない)
+    private List<String> complete(Player player, String[] args, boolean async) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == 1) {
+            // 最初の引数の候補
+            for (String cmd : SUBCOMMANDS) {
+                if ((cmd.equals("stats") || cmd.equals("reload")) && !player.hasPermission("bluesky." + cmd)) {
+                    continue;
+                }
+                if (cmd.startsWith(args[0].toLowerCase(Locale.ROOT))) {
+                    completions.add(cmd);
+                }
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("lang")) {
+            // 読み込まれている言語コード
+            List<String> candidates = new ArrayList<>(messages.codes());
+            candidates.add("auto");
+            for (String code : candidates) {
+                if (code.startsWith(args[1].toLowerCase(Locale.ROOT))) {
+                    completions.add(code);
+                }
+            }
+        } else if (args.length == 2 && (args[0].equalsIgnoreCase("live") || args[0].equalsIgnoreCase("autopost"))) {
+            for (String option : new String[]{"on", "off"}) {
+                if (option.startsWith(args[1].toLowerCase(Locale.ROOT))) {
+                    completions.add(option);
+                }
+            }
+        } else if (args.length >= 2 && args[0].equalsIgnoreCase("feed")) {
+            completeFeed(player, args, async, completions);
+        } else if (args.length >= 2 && args[0].equalsIgnoreCase("post")) {
+            if (args[args.length - 1].startsWith("--")) {
+                completeImage(args[args.length - 1], async, completions);
+            } else {
+                completeMention(player, args[args.length - 1], async, completions);
+            }
+        }
+        return completions;
+    }
+
+    // フィード名は索引から補完する (通信しない)
+    private void completeFeed(Player player, String[] args, boolean async, List<String> completions) {
+        UUID playerId = player.getUniqueId();
+        String prefix = String.join(" ", Arrays.copyOfRange(args, 1, args.length)).toLowerCase(Locale.ROOT);
+        List<String> candidates = new ArrayList<>();
+        candidates.add("list");
+        FeedIndex.Index index = feedIndex.get(playerId);
+        if (index != null) {
+            candidates.addAll(index.names());
+        } else if (async && sessionManager.has(playerId)) {
+            // 次の入力までに索引を作っておく
+            requestFeedIndex.accept(playerId);
+        }
+        for (String name : candidates) {
+            if (name.toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                // 空白を含む名前は入力中の単語以降だけを返す
+                completions.add(name.substring(prefix.lastIndexOf(' ') + 1));
+            }
+        }
+    }
+
+    // 画像の添付 (--image= のファイル名はフォルダを読むので、メインスレッドの外でだけ補完する)
+    private void completeImage(String word, boolean async, List<String> completions) {
+        if (images == null) {
+            return;
+        }
+        List<String> candidates = new ArrayList<>();
+        candidates.add("--map");
+        if (async && word.startsWith("--image=")) {
+            for (String name : images.screenshots()) {
+                candidates.add("--image=" + name);
+            }
+        } else {
+            candidates.add("--image=");
+        }
+        for (String candidate : candidates) {
+            if (candidate.toLowerCase(Locale.ROOT).startsWith(word.toLowerCase(Locale.ROOT))) {
+                completions.add(candidate);
+            }
+        }
+    }
+
+    // 投稿本文の入力中の単語が @ で始まっていればハンドルを補完する
+    private void completeMention(Player player, String word, boolean async, List<String> completions) {
+        if (!word.startsWith("@") || word.length() < 2 || !sessionManager.has(player.getUniqueId())) {
+            return;
+        }
+        List<String> handles = async ? typeahead.suggest(player.getUniqueId(), word) : typeahead.cached(word);
+        for (String handle : handles) {
+            completions.add("@" + handle);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// 投稿本文からメンション・URL・ハッシュタグを見つけ、app.bsky.richtext.facet を作る
+// facetの位置は文字数ではなくUTF-8のバイト位置で指定する (日本語や絵文字があるとずれるため)
+public final class FacetBuilder {
+    public enum Kind { MENTION, LINK, TAG }
+
+    // value: メンションはハンドル (@なし、小文字)、リンクはURL、タグは#なしのタグ
+    public record Span(Kind kind, int byteStart, int byteEnd, String value) {}
+
+    // 行頭・空白・( の直後の @ハンドル (ドメイン形式のもののみ)
+    private static final Pattern MENTION = Pattern.compile(
+            "(?<=^|[\\s(])@((?:[a-zA-Z0-9](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?\\.)+[a-zA-Z](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?)");
+    // http(s) のURL (末尾の句読点や閉じていない括弧は含めない)
+    private static final Pattern LINK = Pattern.compile("(?<=^|[\\s(])https?://[^\\s]+");
+    // 行頭・空白の直後の #タグ (全角の＃も可、数字だけのものはタグにしない)
+    private static final Pattern TAG = Pattern.compile("(?<=^|\\s)[#＃]([^\\s#＃]+)");
+    private static final int MAX_TAG_LENGTH = 64;
+
+    private FacetBuilder() {
+    }
+
+    // 本文中のメンション・URL・タグを位置順に返す (重なるものは先に見つかった方を使う)
+    public static List<Span> parse(String text) {
+        int[] byteOffsets = byteOffsets(text);
+        List<Span> spans = new ArrayList<>();
+
+        Matcher link = LINK.matcher(text);
+        while (link.find()) {
+            String uri = trimUrl(link.group());
+            if (uri.length() > "https://".length()) {
+                add(spans, byteOffsets, Kind.LINK, link.start(), link.start() + uri.length(), uri);
+            }
+        }
+        Matcher mention = MENTION.matcher(text);
+        while (mention.find()) {
+            add(spans, byteOffsets, Kind.MENTION, mention.start(), mention.end(),
+                    mention.group(1).toLowerCase(Locale.ROOT));
+        }
+        Matcher tag = TAG.matcher(text);
+        while (tag.find()) {
+            String value = trimPunctuation(tag.group(1));
+            if (value.isEmpty() || value.length() > MAX_TAG_LENGTH || value.chars().allMatch(Character::isDigit)) {
+                continue;
+            }
+            add(spans, byteOffsets, Kind.TAG, tag.start(), tag.start(1) + value.length(), value);
+        }
+        spans.sort(Comparator.comparingInt(Span::byteStart));
+        return spans;
+    }
+
+    // メンションされたハンドル (重複なし、出てきた順)
+    public static Set<String> mentionedHandles(List<Span> spans) {
+        Set<String> handles = new LinkedHashSet<>();
+        for (Span span : spans) {
+            if (span.kind() == Kind.MENTION) {
+                handles.add(span.value());
+            }
+        }
+        return handles;
+    }
+
+    // facetのJSONを作る。DIDが分からなかったメンションはただの文字列として残す
+    public static JSONArray toFacets(List<Span> spans, Map<String, String> didsByHandle) {
+        JSONArray facets = new JSONArray();
+        for (Span span : spans) {
+            JSONObject feature = new JSONObject();
+            switch (span.kind()) {
+                case MENTION -> {
+                    String did = didsByHandle.get(span.value());
+                    if (did == null) {
+                        continue;
+                    }
+                    feature.put("$type", "app.bsky.richtext.facet#mention").put("did", did);
+                }
+                case LINK -> feature.put("$type", "app.bsky.richtext.facet#link").put("uri", span.value());
+                case TAG -> feature.put("$type", "app.bsky.richtext.facet#tag").put("tag", span.value());
+            }
+            facets.put(new JSONObject()
+                    .put("index", new JSONObject().put("byteStart", span.byteStart()).put("byteEnd", span.byteEnd()))
+                    .put("features", new JSONArray().put(feature)));
+        }
+        return facets;
+    }
+
+    private static void add(List<Span> spans, int[] byteOffsets, Kind kind, int start, int end, String value) {
+        int byteStart = byteOffsets[start];
+        int byteEnd = byteOffsets[end];
+        for (Span span : spans) {
+            if (byteStart < span.byteEnd() && span.byteStart() < byteEnd) {
+                return;
+            }
+        }
+        spans.add(new Span(kind, byteStart, byteEnd, value));
+    }
+
+    // 文字 (char) の位置→UTF-8のバイト位置の表 (サロゲートペアは4バイトを後半の位置でまとめて数える)
+    static int[] byteOffsets(String text) {
+        int[] offsets = new int[text.length() + 1];
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            offsets[i] = bytes;
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isLowSurrogate(c)) {
+                // 前半のサロゲートと合わせて4バイト
+                bytes += 4;
+            } else if (!Character.isHighSurrogate(c)) {
+                bytes += 3;
+            }
+        }
+        offsets[text.length()] = bytes;
+        return offsets;
+    }
+
+    // URLの末尾の句読点と、対応する ( の無い ) を外す
+    private static String trimUrl(String url) {
+        String trimmed = trimPunctuation(url);
+        while (trimmed.endsWith(")") && count(trimmed, '(') < count(trimmed, ')')) {
+            trimmed = trimPunctuation(trimmed.substring(0, trimmed.length() - 1));
+        }
+        return trimmed;
+    }
+
+    private static String trimPunctuation(String value) {
+        int end = value.length();
+        while (end > 0 && ".,;:!?'\"。、！？」』".indexOf(value.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private static int count(String value, char c) {
+        int count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// getTimeline / getFeed / getActorFeeds のレスポンスから表示に使うフィールドだけを取り出す
+// DOMを作らずにストリームから直接読み、不要なembedやfacet、viewerなどは読み飛ばす
+public final class FeedDecoder {
+    public record FeedPage(List<Post> posts, String cursor) {}
+
+    public record Generator(String uri, String displayName) {}
+
+    public record GeneratorPage(List<Generator> generators, String cursor) {}
+
+    private FeedDecoder() {
+    }
+
+    // { "feed": [ { "post": {...}, "reason": ... } ], "cursor": "..." }
+    public static FeedPage decodeFeed(InputStream in) throws IOException {
+        List<Post> posts = new ArrayList<>();
+        String cursor = null;
+        try (JsonPullReader reader = new JsonPullReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "feed" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Post post = readFeedViewPost(reader);
+                            if (post != null) {
+                                posts.add(post);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    case "cursor" -> cursor = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new FeedPage(List.copyOf(posts), cursor);
+    }
+
+    // { "feeds": [ generatorView | { "generator": generatorView } ], "cursor": "..." }
+    public static GeneratorPage decodeGenerators(InputStream in) throws IOException {
+        List<Generator> generators = new ArrayList<>();
+        String cursor = null;
+        try (JsonPullReader reader = new JsonPullReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "feeds" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            Generator generator = readGenerator(reader);
+                            if (generator != null) {
+                                generators.add(generator);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                    case "cursor" -> cursor = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new GeneratorPage(List.copyOf(generators), cursor);
+    }
+
+    private static Post readFeedViewPost(JsonPullReader reader) throws IOException {
+        Post post = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("post")) {
+                post = readPostView(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return post;
+    }
+
+    private static Post readPostView(JsonPullReader reader) throws IOException {
+        String uri = null;
+        String handle = null;
+        String displayName = null;
+        String text = null;
+        String createdAt = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "uri" -> uri = reader.nextString();
+                case "author" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "handle" -> handle = reader.nextString();
+                            case "displayName" -> displayName = reader.nextString();
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                case "record" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "text" -> text = reader.nextString();
+                            case "createdAt" -> createdAt = reader.nextString();
+                            default -> reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // URIの無い投稿は開けず、キャッシュのキーにもできないので捨てる
+        if (uri == null || handle == null) {
+            return null;
+        }
+        return new Post(uri, handle, displayName, text == null ? "" : text, createdAt);
+    }
+
+    private static Generator readGenerator(JsonPullReader reader) throws IOException {
+        String uri = null;
+        String displayName = null;
+        Generator nested = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "uri" -> uri = reader.nextString();
+                case "displayName" -> displayName = reader.nextString();
+                case "generator" -> nested = readGenerator(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (nested != null) {
+            return nested;
+        }
+        if (uri == null) {
+            return null;
+        }
+        return new Generator(uri, displayName == null ? uri : displayName);
+    }
+}
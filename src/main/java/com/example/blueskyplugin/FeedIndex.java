@@ -0,0 +1,167 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// プレイヤーごとのフィード表示名→AT-URIの索引
+// 一度作ればフィードを開くのはgetFeedの1リクエストだけで済む
+public class FeedIndex {
+    public record Index(List<FeedDecoder.Generator> saved, List<FeedDecoder.Generator> created, long builtAt) {
+
+        // 表示名 (大文字小文字を区別しない)、AT-URI全体、またはrkeyが一致するフィードを探す
+        // URIの一部だけの一致は別のフィードを開いてしまうので使わない
+        public FeedDecoder.Generator find(String name) {
+            for (List<FeedDecoder.Generator> list : List.of(saved, created)) {
+                for (FeedDecoder.Generator generator : list) {
+                    if (generator.displayName().equalsIgnoreCase(name)) {
+                        return generator;
+                    }
+                }
+            }
+            for (List<FeedDecoder.Generator> list : List.of(saved, created)) {
+                for (FeedDecoder.Generator generator : list) {
+                    String uri = generator.uri();
+                    if (uri.equals(name) || uri.substring(uri.lastIndexOf('/') + 1).equals(name)) {
+                        return generator;
+                    }
+                }
+            }
+            return null;
+        }
+
+        public List<String> names() {
+            List<String> names = new ArrayList<>();
+            saved.forEach(generator -> names.add(generator.displayName()));
+            created.forEach(generator -> {
+                if (!names.contains(generator.displayName())) {
+                    names.add(generator.displayName());
+                }
+            });
+            return names;
+        }
+    }
+
+    private final XrpcClient xrpc;
+    private final SessionManager sessionManager;
+    private final long maxAgeMillis;
+    private final Map<UUID, Index> indexes = new ConcurrentHashMap<>();
+    // 同じプレイヤーの索引作成は1回にまとめる
+    private final Map<UUID, CompletableFuture<Index>> building = new ConcurrentHashMap<>();
+
+    public FeedIndex(XrpcClient xrpc, SessionManager sessionManager, long maxAgeMillis) {
+        this.xrpc = xrpc;
+        this.sessionManager = sessionManager;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public Index get(UUID playerId) {
+        return indexes.get(playerId);
+    }
+
+    public boolean isStale(UUID playerId) {
+        Index index = indexes.get(playerId);
+        return index == null || System.currentTimeMillis() - index.builtAt() > maxAgeMillis;
+    }
+
+    public void invalidate(UUID playerId) {
+        indexes.remove(playerId);
+    }
+
+    // 索引があればそれを返し、無ければ作る
+    public Index getOrBuild(UUID playerId, String actor) throws IOException {
+        Index index = indexes.get(playerId);
+        return index != null ? index : build(playerId, actor);
+    }
+
+    // 保存済みフィード (getPreferences → getFeedGenerators) と作成したフィード (getActorFeeds) から索引を作る
+    public Index build(UUID playerId, String actor) throws IOException {
+        CompletableFuture<Index> mine = new CompletableFuture<>();
+        CompletableFuture<Index> existing = building.putIfAbsent(playerId, mine);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e;
+            }
+        }
+        try {
+            Index index = new Index(fetchSaved(playerId), fetchCreated(playerId, actor), System.currentTimeMillis());
+            indexes.put(playerId, index);
+            mine.complete(index);
+            return index;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            building.remove(playerId, mine);
+        }
+    }
+
+    private List<FeedDecoder.Generator> fetchSaved(UUID playerId) throws IOException {
+        JSONObject preferences = sessionManager.call(playerId,
+                jwt -> xrpc.get("app.bsky.actor.getPreferences", jwt)).requireOk().json();
+        List<String> uris = savedFeedUris(preferences);
+        if (uris.isEmpty()) {
+            return List.of();
+        }
+        // getFeedGenerators は feeds=... を繰り返して渡す
+        String[] params = new String[uris.size() * 2];
+        for (int i = 0; i < uris.size(); i++) {
+            params[i * 2] = "feeds";
+            params[i * 2 + 1] = uris.get(i);
+        }
+        return sessionManager.call(playerId, jwt -> xrpc.getStreaming("app.bsky.feed.getFeedGenerators", jwt,
+                FeedDecoder::decodeGenerators, params)).generators();
+    }
+
+    private List<FeedDecoder.Generator> fetchCreated(UUID playerId, String actor) throws IOException {
+        return sessionManager.call(playerId, jwt -> xrpc.getStreaming("app.bsky.feed.getActorFeeds", jwt,
+                FeedDecoder::decodeGenerators, "actor", actor, "limit", "100")).generators();
+    }
+
+    // savedFeedsPrefV2 (新形式) と savedFeedsPref (旧形式) の両方から保存済みフィードのURIを集める
+    private static List<String> savedFeedUris(JSONObject preferences) {
+        List<String> uris = new ArrayList<>();
+        JSONArray prefs = preferences.optJSONArray("preferences", new JSONArray());
+        for (int i = 0; i < prefs.length(); i++) {
+            JSONObject pref = prefs.getJSONObject(i);
+            String type = pref.optString("$type", "");
+            if (type.endsWith("#savedFeedsPrefV2")) {
+                JSONArray items = pref.optJSONArray("items", new JSONArray());
+                for (int j = 0; j < items.length(); j++) {
+                    JSONObject item = items.getJSONObject(j);
+                    if ("feed".equals(item.optString("type").toLowerCase(Locale.ROOT))) {
+                        addUnique(uris, item.optString("value", null));
+                    }
+                }
+            } else if (type.endsWith("#savedFeedsPref")) {
+                JSONArray saved = pref.optJSONArray("saved", new JSONArray());
+                for (int j = 0; j < saved.length(); j++) {
+                    String uri = saved.optString(j, null);
+                    if (uri != null && uri.contains("/app.bsky.feed.generator/")) {
+                        addUnique(uris, uri);
+                    }
+                }
+            }
+        }
+        return uris;
+    }
+
+    private static void addUnique(List<String> uris, String uri) {
+        if (uri != null && !uris.contains(uri)) {
+            uris.add(uri);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.blueskyplugin;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// ライブ表示中のプレイヤーがフォローしているDID → そのプレイヤーたち、の索引
+// ストリームのイベント1件ごとに followers(did) を1回引くだけで配送先が決まる
+public class FollowerIndex {
+    // フォローしているアカウントの表示用の情報 (ストリームのイベントにはハンドルが含まれないため)
+    public record Author(String handle, String displayName) {}
+
+    private final Map<String, Set<UUID>> followersByDid = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, Author>> followsByPlayer = new ConcurrentHashMap<>();
+    private final Map<String, Author> authors = new ConcurrentHashMap<>();
+
+    // プレイヤーのフォロー一覧を登録する (前の一覧は置き換える)
+    public synchronized void put(UUID playerId, Map<String, Author> follows) {
+        remove(playerId);
+        followsByPlayer.put(playerId, Map.copyOf(follows));
+        follows.forEach((did, author) -> {
+            followersByDid.computeIfAbsent(did, k -> ConcurrentHashMap.newKeySet()).add(playerId);
+            authors.put(did, author);
+        });
+    }
+
+    public synchronized void remove(UUID playerId) {
+        Map<String, Author> follows = followsByPlayer.remove(playerId);
+        if (follows == null) {
+            return;
+        }
+        for (String did : follows.keySet()) {
+            Set<UUID> followers = followersByDid.get(did);
+            if (followers != null) {
+                followers.remove(playerId);
+                if (followers.isEmpty()) {
+                    followersByDid.remove(did);
+                    authors.remove(did);
+                }
+            }
+        }
+    }
+
+    // DIDをフォローしているライブ表示中のプレイヤー (いなければ空)
+    public Set<UUID> followers(String did) {
+        Set<UUID> followers = followersByDid.get(did);
+        return followers != null ? followers : Set.of();
+    }
+
+    public boolean isFollowed(String did) {
+        return followersByDid.containsKey(did);
+    }
+
+    public Author author(String did) {
+        return authors.get(did);
+    }
+
+    public boolean contains(UUID playerId) {
+        return followsByPlayer.containsKey(playerId);
+    }
+
+    public Set<UUID> players() {
+        return followsByPlayer.keySet();
+    }
+
+    public boolean isEmpty() {
+        return followsByPlayer.isEmpty();
+    }
+}
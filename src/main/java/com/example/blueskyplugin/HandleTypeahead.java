@@ -0,0 +1,151 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// @ハンドルのTab補完の候補 (app.bsky.actor.searchActorsTypeahead)
+// 候補は入力中のプレフィックスごとにTTL付きでキャッシュし、全プレイヤーで共有する
+// 問い合わせはプレイヤーごとに最後の入力から debounce だけ待ってから1回だけ行う (1文字ごとに送らない)
+// 呼び出し元 (Nettyのスレッド) は待たせない。問い合わせの結果はキャッシュに入り、次の入力の候補になる
+public class HandleTypeahead {
+    // プレフィックスで検索した結果を返す (ハンドルのリスト)
+    @FunctionalInterface
+    public interface Search {
+        List<String> search(UUID playerId, String prefix, int limit) throws IOException;
+    }
+
+    // complete: 上限件数より少なかった (= このプレフィックスで始まるハンドルは全部入っている)
+    private record Result(List<String> handles, boolean complete) {}
+
+    // プレイヤーごとの、待機中または実行中の問い合わせ
+    private record Pending(String prefix, CompletableFuture<Result> result, ScheduledFuture<?> timer) {}
+
+    private final Search search;
+    private final Executor executor;
+    private final long debounceMillis;
+    private final int limit;
+    private final Metrics metrics;
+    private final RequestCoalescer<Result> cache;
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon().name("bluesky-typeahead").unstarted(r));
+
+    public HandleTypeahead(Search search, Executor executor, long debounceMillis,
+                           long ttlMillis, int maxEntries, int limit, Metrics metrics) {
+        this.search = search;
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+        this.limit = limit;
+        this.metrics = metrics;
+        // 同じプレフィックスを同時に打ったプレイヤーの問い合わせは1回にまとめる
+        this.cache = new RequestCoalescer<>(ttlMillis, maxEntries, metrics, "typeahead");
+    }
+
+    // キャッシュだけから候補を返す (通信しない)
+    public List<String> cached(String prefix) {
+        String query = normalize(prefix);
+        Result result = lookup(query);
+        return result == null ? List.of() : result.handles();
+    }
+
+    // 候補をすぐに返す。キャッシュで足りなければ問い合わせを予約し、今回はキャッシュにある短いプレフィックスの候補を返す
+    public List<String> suggest(UUID playerId, String prefix) {
+        String query = normalize(prefix);
+        if (query.isEmpty()) {
+            return List.of();
+        }
+        Result known = lookup(query);
+        if (known != null && known.complete()) {
+            // 完全一致、または上限未満だった短いプレフィックスの結果を絞り込めば足りる
+            metrics.cacheHit("typeahead");
+            return known.handles();
+        }
+        schedule(playerId, query);
+        return known == null ? List.of() : known.handles();
+    }
+
+    // 退出したプレイヤーの待機中の問い合わせを捨てる
+    public void forget(UUID playerId) {
+        Pending previous = pending.remove(playerId);
+        if (previous != null) {
+            previous.timer().cancel(false);
+            previous.result().cancel(false);
+        }
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        pending.values().forEach(p -> p.result().cancel(false));
+        pending.clear();
+    }
+
+    // 前の入力の問い合わせがまだ始まっていなければ取り消し、debounce後に新しいプレフィックスで問い合わせる
+    private void schedule(UUID playerId, String query) {
+        pending.compute(playerId, (id, previous) -> {
+            if (previous != null) {
+                if (previous.prefix().equals(query)) {
+                    return previous;
+                }
+                previous.timer().cancel(false);
+                previous.result().cancel(false);
+            }
+            CompletableFuture<Result> result = new CompletableFuture<>();
+            ScheduledFuture<?> task = timer.schedule(() -> executor.execute(() -> fetch(playerId, query, result)),
+                    debounceMillis, TimeUnit.MILLISECONDS);
+            return new Pending(query, result, task);
+        });
+    }
+
+    private void fetch(UUID playerId, String query, CompletableFuture<Result> result) {
+        try {
+            if (!result.isDone()) {
+                result.complete(cache.get(query, () -> {
+                    List<String> handles = search.search(playerId, query, limit);
+                    return new Result(List.copyOf(handles), handles.size() < limit);
+                }));
+            }
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            pending.computeIfPresent(playerId, (id, current) -> current.result() == result ? null : current);
+        }
+    }
+
+    // 完全一致のキャッシュか、最も長い短いプレフィックスのキャッシュを絞り込んだものを返す
+    // (完全一致の結果は、件数に関係なくそれ以上問い合わせなくてよいので complete として返す)
+    private Result lookup(String query) {
+        for (int end = query.length(); end > 0; end--) {
+            Result result = cache.getIfPresent(query.substring(0, end));
+            if (result == null) {
+                continue;
+            }
+            if (end == query.length()) {
+                return new Result(result.handles(), true);
+            }
+            List<String> filtered = new ArrayList<>();
+            for (String handle : result.handles()) {
+                if (handle.toLowerCase(Locale.ROOT).startsWith(query)) {
+                    filtered.add(handle);
+                }
+            }
+            return new Result(filtered, result.complete());
+        }
+        return null;
+    }
+
+    private static String normalize(String prefix) {
+        String query = prefix.startsWith("@") ? prefix.substring(1) : prefix;
+        return query.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// ハンドル→DIDの対応を覚えておくキャッシュ (LRU + TTL)
+// ログイン時に登録され、identities.json に保存して再起動後も使う
+public class IdentityCache {
+    private record Entry(String did, long expiresAt) {}
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public IdentityCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        // アクセス順のLinkedHashMapで、上限を超えたら最も古いものを捨てる
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > IdentityCache.this.maxEntries;
+            }
+        };
+    }
+
+    // キャッシュされたDIDを返す (無い、または期限切れならnull)
+    public synchronized String get(String handle) {
+        String key = normalize(handle);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.did();
+    }
+
+    public synchronized void put(String handle, String did) {
+        if (handle == null || did == null) {
+            return;
+        }
+        entries.put(normalize(handle), new Entry(did, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(String handle) {
+        entries.remove(normalize(handle));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // ファイルから読み込む (期限切れのものは読み飛ばす)
+    public void load(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            JSONObject data = new JSONObject(new JSONTokener(in));
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                for (String handle : data.keySet()) {
+                    JSONObject entry = data.getJSONObject(handle);
+                    long expiresAt = entry.getLong("expiresAt");
+                    if (expiresAt > now) {
+                        entries.put(handle, new Entry(entry.getString("did"), expiresAt));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Error loading identity cache: " + e.getMessage(), e);
+        }
+    }
+
+    public void save(File file) throws IOException {
+        JSONObject data = new JSONObject();
+        synchronized (this) {
+            entries.forEach((handle, entry) -> {
+                JSONObject json = new JSONObject();
+                json.put("did", entry.did());
+                json.put("expiresAt", entry.expiresAt());
+                data.put(handle, json);
+            });
+        }
+        WriteBehindFlusher.writeAtomically(file.toPath(), data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String normalize(String handle) {
+        String h = handle.startsWith("@") ? handle.substring(1) : handle;
+        return h.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.blueskyplugin;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// 投稿に添付する画像を用意する (地図の描画・スクリーンショットの縮小)
+// 描画と縮小はCPUを使うので、上限のあるワーカー (workers 個のスレッドと queueSize 件の待ち行列) で行う
+// 上限を超えたら待たせずに断る (RejectedExecutionException)
+public class ImagePipeline {
+    // アップロードする画像 (temporary なら送信後に消す)
+    public record Prepared(Path file, String mimeType, int width, int height, boolean temporary) {}
+
+    private final Path screenshots;
+    private final Path tempDirectory;
+    private final long maxBytes;
+    private final int maxDimension;
+    private final int pixelsPerBlock;
+    private final ThreadPoolExecutor workers;
+
+    public ImagePipeline(Path screenshots, Path tempDirectory, long maxBytes, int maxDimension, int pixelsPerBlock,
+                         int workers, int queueSize) {
+        this.screenshots = screenshots.toAbsolutePath().normalize();
+        this.tempDirectory = tempDirectory;
+        this.maxBytes = maxBytes;
+        this.maxDimension = maxDimension;
+        this.pixelsPerBlock = Math.max(1, pixelsPerBlock);
+        this.workers = new ThreadPoolExecutor(Math.max(1, workers), Math.max(1, workers), 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                r -> Thread.ofPlatform().daemon().name("bluesky-image").unstarted(r));
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    // スクリーンショットのフォルダの中のファイル (フォルダの外を指す名前や、無いファイルはnull)
+    public Path screenshot(String name) {
+        Path file = screenshots.resolve(name).normalize();
+        if (!file.startsWith(screenshots) || !Files.isRegularFile(file) || mimeTypeOf(file) == null) {
+            return null;
+        }
+        return file;
+    }
+
+    // 添付できるスクリーンショットのファイル名 (Tab補完用)
+    public List<String> screenshots() {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(screenshots)) {
+            return names;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(screenshots)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && mimeTypeOf(file) != null) {
+                    names.add(file.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            // 読めなければ候補なし
+        }
+        return names;
+    }
+
+    // 地図を描画する
+    public Future<Prepared> renderMap(MapRenderer.Area area) {
+        return submit(() -> {
+            Path output = tempFile(".png");
+            int size;
+            try {
+                size = MapRenderer.render(area, pixelsPerBlock, output);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+            return shrinkIfNeeded(new Prepared(output, "image/png", size, size, true));
+        });
+    }
+
+    // ファイルをそのまま使う。大きすぎる場合だけ縮小したJPEGを作る
+    public Future<Prepared> prepareFile(Path file) {
+        return submit(() -> {
+            int[] size = dimensions(file);
+            return shrinkIfNeeded(new Prepared(file, mimeTypeOf(file), size[0], size[1], false));
+        });
+    }
+
+    // 受け取らない画像を片付ける (まだ用意中なら取り消し、出来上がっていれば一時ファイルを消す)
+    public static void discard(Future<Prepared> pending) {
+        if (pending == null || pending.cancel(false)) {
+            // 用意中に取り消した分は Job が出来上がった時に消す
+            return;
+        }
+        try {
+            Prepared image = pending.get();
+            if (image.temporary()) {
+                Files.deleteIfExists(image.file());
+            }
+        } catch (Exception e) {
+            // 失敗した画像は一時ファイルを残さない
+        }
+    }
+
+    // 前回の実行で残った一時ファイルを消す (起動時に呼ぶ)
+    public void clearTemporaryFiles() {
+        if (!Files.isDirectory(tempDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDirectory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            // 消せなければ次回に消す
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private Future<Prepared> submit(Callable<Prepared> task) {
+        Job job = new Job(task);
+        workers.execute(job);
+        return job;
+    }
+
+    // 取り消された後に出来上がった一時ファイルは、受け取る人がいないのでここで消す
+    private static final class Job extends FutureTask<Prepared> {
+        private Job(Callable<Prepared> task) {
+            super(task);
+        }
+
+        @Override
+        protected void set(Prepared image) {
+            super.set(image);
+            if (isCancelled() && image.temporary()) {
+                try {
+                    Files.deleteIfExists(image.file());
+                } catch (IOException e) {
+                    // 起動時に tmp/ ごと消す
+                }
+            }
+        }
+    }
+
+    // サイズか一辺の長さが上限を超えていれば縮小する (上限以内ならデコードせずにそのまま送る)
+    private Prepared shrinkIfNeeded(Prepared image) throws IOException {
+        if (Files.size(image.file()) <= maxBytes && Math.max(image.width(), image.height()) <= maxDimension) {
+            return image;
+        }
+        BufferedImage source = ImageIO.read(image.file().toFile());
+        if (source == null) {
+            throw new IOException("Unsupported image: " + image.file().getFileName());
+        }
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        Path output = null;
+        try {
+            for (int attempt = 0; attempt < 5; attempt++) {
+                int width = Math.max(1, (int) (source.getWidth() * scale));
+                int height = Math.max(1, (int) (source.getHeight() * scale));
+                BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = scaled.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(source, 0, 0, width, height, null);
+                graphics.dispose();
+                if (output == null) {
+                    output = tempFile(".jpg");
+                }
+                ImageIO.write(scaled, "jpg", output.toFile());
+                if (Files.size(output) <= maxBytes) {
+                    return new Prepared(output, "image/jpeg", width, height, true);
+                }
+                // まだ大きければさらに縮める
+                scale *= 0.75;
+            }
+            throw new IOException("Image too large: " + image.file().getFileName());
+        } catch (IOException | RuntimeException e) {
+            if (output != null) {
+                Files.deleteIfExists(output);
+            }
+            throw e;
+        } finally {
+            if (image.temporary()) {
+                Files.deleteIfExists(image.file());
+            }
+        }
+    }
+
+    // ヘッダーだけを読んで幅と高さを調べる (画像全体はデコードしない)
+    private static int[] dimensions(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image: " + file.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private Path tempFile(String suffix) throws IOException {
+        Files.createDirectories(tempDirectory);
+        return Files.createTempFile(tempDirectory, "upload", suffix);
+    }
+
+    static String mimeTypeOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".png")) {
+            return "image/png";
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "image/jpeg";
+        } else if (name.endsWith(".gif")) {
+            return "image/gif";
+        }
+        return null;
+    }
+}
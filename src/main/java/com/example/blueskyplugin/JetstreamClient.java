@@ -0,0 +1,256 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+// Jetstream (firehoseをJSONにしたもの) へのWebSocket接続
+// サーバー全体で1本だけ接続し、app.bsky.feed.post の作成イベントのうち、誰かがフォローしている投稿者のものだけを渡す
+// 切断されたらジッター付きの指数バックオフで再接続し、最後に受け取った時刻 (cursor) から続きを受け取る
+public class JetstreamClient {
+    // 新しい投稿 (ハンドルは含まれないのでDIDだけ)
+    public record PostEvent(String did, String rkey, String text, String createdAt) {
+        public String uri() {
+            return "at://" + did + "/app.bsky.feed.post/" + rkey;
+        }
+    }
+
+    private static final String COLLECTION = "app.bsky.feed.post";
+    // これより長く切断されていた場合は続きからではなく今から受け取る
+    private static final long MAX_REPLAY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final String endpoint;
+    // 投稿者のDIDを見て、配送先がいるかどうか (JSON全体を読む前に判定する)
+    private final Predicate<String> interested;
+    private final Consumer<PostEvent> handler;
+    private final Logger logger;
+    private final Metrics metrics;
+    private final long reconnectMaxMillis;
+    private final HttpClient http;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon().name("bluesky-jetstream").unstarted(r));
+
+    private WebSocket socket;
+    private boolean wanted;
+    private boolean connecting;
+    private int failures;
+    private ScheduledFuture<?> reconnect;
+    // 最後に受け取ったイベントの time_us (再接続時の cursor)
+    private volatile long lastTimeUs;
+
+    public JetstreamClient(String endpoint, Predicate<String> interested, Consumer<PostEvent> handler,
+                           Logger logger, Metrics metrics, long reconnectMaxMillis) {
+        this.endpoint = endpoint;
+        this.interested = interested;
+        this.handler = handler;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.reconnectMaxMillis = reconnectMaxMillis;
+        this.http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    // 接続する (既に接続中なら何もしない)
+    public synchronized void start() {
+        wanted = true;
+        if (socket == null && !connecting && (reconnect == null || reconnect.isDone())) {
+            connect();
+        }
+    }
+
+    // 切断する (配送先がいなくなった時)。次に start した時は今から受け取る
+    public synchronized void stop() {
+        wanted = false;
+        if (reconnect != null) {
+            reconnect.cancel(false);
+            reconnect = null;
+        }
+        if (socket != null) {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+            socket = null;
+        }
+        lastTimeUs = 0;
+    }
+
+    public synchronized boolean isConnected() {
+        return socket != null;
+    }
+
+    public void shutdown() {
+        stop();
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void connect() {
+        connecting = true;
+        http.newWebSocketBuilder().buildAsync(subscribeUri(), new Listener()).whenComplete((ws, error) -> {
+            synchronized (this) {
+                connecting = false;
+                if (error != null) {
+                    scheduleReconnect(error.getMessage());
+                } else if (!wanted) {
+                    ws.sendClose(WebSocket.NORMAL_CLOSURE, "");
+                } else {
+                    socket = ws;
+                    failures = 0;
+                    logger.info("Jetstreamに接続しました: " + endpoint);
+                }
+            }
+        });
+    }
+
+    // wantedCollections で投稿だけに絞り、続きから受け取れる場合は cursor を付ける
+    private URI subscribeUri() {
+        StringBuilder uri = new StringBuilder(endpoint);
+        uri.append(endpoint.contains("?") ? '&' : '?').append("wantedCollections=").append(COLLECTION);
+        long cursor = lastTimeUs;
+        if (cursor > 0 && System.currentTimeMillis() * 1000 - cursor < MAX_REPLAY_MICROS) {
+            uri.append("&cursor=").append(cursor);
+        }
+        return URI.create(uri.toString());
+    }
+
+    private synchronized void closed(WebSocket ws, String reason) {
+        if (socket != ws) {
+            return;
+        }
+        socket = null;
+        if (wanted) {
+            scheduleReconnect(reason);
+        }
+    }
+
+    private synchronized void scheduleReconnect(String reason) {
+        if (!wanted || scheduler.isShutdown()) {
+            return;
+        }
+        metrics.increment("live_reconnects");
+        long cap = Math.min(reconnectMaxMillis, 1000L << Math.min(failures++, 16));
+        long delay = ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+        logger.warning("Jetstreamから切断されました (" + reason + ")。" + delay + "ms後に再接続します");
+        reconnect = scheduler.schedule(() -> {
+            synchronized (this) {
+                if (wanted && socket == null && !connecting) {
+                    connect();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // 1件のイベントを処理する。配送先の無い投稿者のイベントはJSONとして読まずに捨てる
+    private void handle(String message) {
+        metrics.increment("live_events");
+        long timeUs = longField(message, "time_us");
+        if (timeUs > 0) {
+            if (timeUs <= lastTimeUs) {
+                // 再接続で重複して届いたもの
+                return;
+            }
+            lastTimeUs = timeUs;
+        }
+        String did = stringField(message, "did");
+        if (did != null && !interested.test(did)) {
+            return;
+        }
+        try {
+            JSONObject event = new JSONObject(message);
+            JSONObject commit = event.optJSONObject("commit");
+            if (!"commit".equals(event.optString("kind")) || commit == null
+                    || !"create".equals(commit.optString("operation")) || !COLLECTION.equals(commit.optString("collection"))) {
+                return;
+            }
+            did = event.getString("did");
+            if (!interested.test(did)) {
+                return;
+            }
+            JSONObject record = commit.optJSONObject("record", new JSONObject());
+            // 返信は、返信先の投稿者も誰かがフォローしている場合だけ流す
+            JSONObject reply = record.optJSONObject("reply");
+            if (reply != null) {
+                String parentUri = reply.optJSONObject("parent", new JSONObject()).optString("uri", "");
+                String parentDid = parentUri.startsWith("at://") ? parentUri.substring(5).split("/", 2)[0] : "";
+                if (!interested.test(parentDid)) {
+                    return;
+                }
+            }
+            handler.accept(new PostEvent(did, commit.getString("rkey"), record.optString("text", ""),
+                    record.optString("createdAt", null)));
+        } catch (JSONException e) {
+            logger.fine("Jetstreamのイベントを読めませんでした: " + e.getMessage());
+        }
+    }
+
+    // トップレベルの "name":"value" を探す (Jetstreamは did と time_us を先頭に書く)
+    private static String stringField(String json, String name) {
+        String key = "\"" + name + "\":\"";
+        int start = json.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = json.indexOf('"', start);
+        return end > start ? json.substring(start, end) : null;
+    }
+
+    private static long longField(String json, String name) {
+        String key = "\"" + name + "\":";
+        int start = json.indexOf(key);
+        if (start < 0) {
+            return 0;
+        }
+        start += key.length();
+        long value = 0;
+        for (int i = start; i < json.length() && Character.isDigit(json.charAt(i)); i++) {
+            value = value * 10 + (json.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private final class Listener implements WebSocket.Listener {
+        // 1つのメッセージが複数のフレームに分かれて届くことがある
+        private final StringBuilder buffer = new StringBuilder();
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            buffer.append(data);
+            if (last) {
+                String message = buffer.toString();
+                buffer.setLength(0);
+                try {
+                    handle(message);
+                } catch (RuntimeException e) {
+                    logger.warning("Jetstreamのイベントの処理でエラーが発生しました: " + e.getMessage());
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed(webSocket, "close " + statusCode);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            closed(webSocket, String.valueOf(error.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+// レスポンスのバイトストリームを先頭から読み進める最小限のJSONプルパーサー
+// 必要なフィールドだけを文字列にし、それ以外は文字列を作らずに読み飛ばす
+public class JsonPullReader implements AutoCloseable {
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    private static final int OBJECT_NAME = 0;
+    private static final int OBJECT_VALUE = 1;
+    private static final int ARRAY = 2;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    // 文字列・数値の組み立て用 (使い回す)
+    private final StringBuilder scratch = new StringBuilder();
+    // ネストごとの状態 (オブジェクトで名前待ち / オブジェクトで値待ち / 配列)
+    private int[] stack = new int[32];
+    private int depth;
+
+    public JsonPullReader(InputStream in) {
+        this.reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    public JsonPullReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    // 次のトークンの種類を返す (読み進めない)
+    public Token peek() throws IOException {
+        int c = nextNonSeparator();
+        if (c == -1) {
+            return Token.END;
+        }
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return depth > 0 && stack[depth - 1] == OBJECT_NAME ? Token.NAME : Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect('{');
+        push(OBJECT_NAME);
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+        depth--;
+        valueRead();
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+        push(ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        depth--;
+        valueRead();
+    }
+
+    // 現在のオブジェクト・配列にまだ要素があるか
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+
+    public String nextName() throws IOException {
+        if (peek() != Token.NAME) {
+            throw new IOException("Expected name but was " + peek());
+        }
+        pos++;
+        String name = readString();
+        stack[depth - 1] = OBJECT_VALUE;
+        expect(':');
+        return name;
+    }
+
+    // 文字列を読む (nullならnullを返す)
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            skipLiteral();
+            valueRead();
+            return null;
+        }
+        if (token != Token.STRING) {
+            throw new IOException("Expected string but was " + token);
+        }
+        pos++;
+        String value = readString();
+        valueRead();
+        return value;
+    }
+
+    public long nextLong() throws IOException {
+        if (peek() != Token.NUMBER) {
+            throw new IOException("Expected number but was " + peek());
+        }
+        scratch.setLength(0);
+        while (true) {
+            int c = peekChar();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            scratch.append((char) c);
+            pos++;
+        }
+        valueRead();
+        try {
+            return (long) Double.parseDouble(scratch.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number: " + scratch);
+        }
+    }
+
+    // 値を1つ読み飛ばす (オブジェクト・配列は中身ごと)。文字列は作らない
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            int c = nextNonSeparator();
+            if (c == -1) {
+                throw new IOException("Unexpected end of JSON");
+            }
+            switch (c) {
+                case '{':
+                case '[':
+                    pos++;
+                    nesting++;
+                    break;
+                case '}':
+                case ']':
+                    pos++;
+                    nesting--;
+                    break;
+                case '"':
+                    pos++;
+                    skipString();
+                    break;
+                case ':':
+                    pos++;
+                    break;
+                default:
+                    skipLiteral();
+                    break;
+            }
+        } while (nesting > 0);
+        valueRead();
+    }
+
+    // 現在のオブジェクトの残りのフィールドを読み飛ばして閉じる
+    public void skipRestOfObject() throws IOException {
+        while (hasNext()) {
+            nextName();
+            skipValue();
+        }
+        endObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void push(int state) {
+        if (depth == stack.length) {
+            int[] grown = new int[depth * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = state;
+    }
+
+    // 値を読み終えたら、親がオブジェクトなら次は名前
+    private void valueRead() {
+        if (depth > 0 && stack[depth - 1] == OBJECT_VALUE) {
+            stack[depth - 1] = OBJECT_NAME;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonSeparator();
+        if (c != expected) {
+            throw new IOException("Expected '" + expected + "' but was " + (c == -1 ? "EOF" : "'" + (char) c + "'"));
+        }
+        pos++;
+    }
+
+    // 空白とカンマを読み飛ばして次の文字を返す (読み進めない)
+    private int nextNonSeparator() throws IOException {
+        while (true) {
+            int c = peekChar();
+            if (c == -1) {
+                return -1;
+            }
+            if (c == ',' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+                continue;
+            }
+            return c;
+        }
+    }
+
+    private int peekChar() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    // 開始の " の直後から終了の " までを読む
+    private String readString() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            if (pos >= limit && !fill()) {
+                throw new IOException("Unterminated string");
+            }
+            char c = buffer[pos++];
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                scratch.append(readEscape());
+            } else {
+                scratch.append(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            if (pos >= limit && !fill()) {
+                throw new IOException("Unterminated string");
+            }
+            char c = buffer[pos++];
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (pos >= limit && !fill()) {
+            throw new IOException("Unterminated escape");
+        }
+        char c = buffer[pos++];
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos >= limit && !fill()) {
+                        throw new IOException("Unterminated escape");
+                    }
+                    code = (code << 4) | Character.digit(buffer[pos++], 16);
+                }
+                return (char) code;
+            default:
+                return c;
+        }
+    }
+
+    // true / false / null / 数値を読み飛ばす
+    private void skipLiteral() throws IOException {
+        while (true) {
+            int c = peekChar();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) {
+                return;
+            }
+            pos++;
+        }
+    }
+}
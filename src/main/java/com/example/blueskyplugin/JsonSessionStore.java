@@ -0,0 +1,92 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+// players/<uuid>.json に1人1ファイルで保存する (1台のサーバーで使う既定の保存先)
+// このサーバーだけが使うので、書き込み時に版の確認はしない
+public class JsonSessionStore implements SessionStore {
+    private final Path directory;
+    private final Logger logger;
+
+    public JsonSessionStore(Path directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    @Override
+    public Versioned read(UUID playerId) {
+        Path file = fileOf(playerId);
+        if (!Files.exists(file)) {
+            return Versioned.NONE;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            JSONObject json = new JSONObject(new JSONTokener(in));
+            return new Versioned(PlayerData.fromJson(json), json.optLong("version", 1));
+        } catch (Exception e) {
+            logger.warning("Error loading data (" + playerId + "): " + e.getMessage());
+            return Versioned.NONE;
+        }
+    }
+
+    @Override
+    public long version(UUID playerId) {
+        return read(playerId).version();
+    }
+
+    @Override
+    public long write(UUID playerId, PlayerData data, long expectedVersion) throws IOException {
+        Path file = fileOf(playerId);
+        if (data.isEmpty()) {
+            Files.deleteIfExists(file);
+            return 0;
+        }
+        JSONObject json = data.toJson();
+        json.put("version", expectedVersion + 1);
+        WriteBehindFlusher.writeAtomically(file, json.toString().getBytes(StandardCharsets.UTF_8));
+        return expectedVersion + 1;
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+
+    // 保存されている全員のUUID (別の保存先への移行用)
+    public List<UUID> list() throws IOException {
+        List<UUID> ids = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return ids;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(UUID.fromString(name.substring(0, name.length() - ".json".length())));
+                } catch (IllegalArgumentException e) {
+                    // UUIDでないファイルは無視する
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() {
+        // 開いているものは無い
+    }
+
+    private Path fileOf(UUID playerId) {
+        return directory.resolve(playerId + ".json");
+    }
+}
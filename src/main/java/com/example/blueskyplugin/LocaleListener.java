@@ -0,0 +1,20 @@
+package com.example.blueskyplugin;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+
+// クライアントの言語が変わったら、覚えておいたプレイヤーの言語を決め直す
+public class LocaleListener implements Listener {
+    private final MessageCatalog messages;
+
+    public LocaleListener(MessageCatalog messages) {
+        this.messages = messages;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLocaleChange(PlayerLocaleChangeEvent event) {
+        messages.invalidate(event.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.blueskyplugin;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+// プレイヤーの周りの地形を上から見た地図の画像にする (地図アイテムと同じく、高い所は明るく、低い所は暗く)
+// ワールドに触るのはチャンクのスナップショットを取る capture だけ (メインスレッド)。描画は別のスレッドで行う
+public final class MapRenderer {
+    // 描画に必要なものだけを持つ (読み込まれていないチャンクはnull)
+    public record Area(ChunkSnapshot[][] chunks, int originChunkX, int originChunkZ, int centerX, int centerZ) {}
+
+    private static final Map<Material, Integer> COLORS = new EnumMap<>(Material.class);
+    private static final int UNLOADED = 0x202020;
+    private static final int MARKER = 0xE02020;
+
+    private MapRenderer() {
+    }
+
+    // メインスレッドで呼ぶ。読み込み済みのチャンクだけをスナップショットにする (新しく読み込みはしない)
+    public static Area capture(Location center, int radiusChunks) {
+        World world = center.getWorld();
+        int centerChunkX = center.getBlockX() >> 4;
+        int centerChunkZ = center.getBlockZ() >> 4;
+        int size = radiusChunks * 2 + 1;
+        ChunkSnapshot[][] chunks = new ChunkSnapshot[size][size];
+        for (int dx = 0; dx < size; dx++) {
+            for (int dz = 0; dz < size; dz++) {
+                int chunkX = centerChunkX - radiusChunks + dx;
+                int chunkZ = centerChunkZ - radiusChunks + dz;
+                if (world.isChunkLoaded(chunkX, chunkZ)) {
+                    // 高さマップだけが必要なので、バイオームや温度は含めない
+                    chunks[dx][dz] = world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false);
+                }
+            }
+        }
+        return new Area(chunks, centerChunkX - radiusChunks, centerChunkZ - radiusChunks,
+                center.getBlockX(), center.getBlockZ());
+    }
+
+    // 1ブロックを pixelsPerBlock 四方のピクセルにしてPNGで書き出し、画像の一辺のピクセル数を返す
+    public static int render(Area area, int pixelsPerBlock, Path output) throws IOException {
+        int blocks = area.chunks().length * 16;
+        int size = blocks * pixelsPerBlock;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        int[] heights = new int[blocks];
+        for (int bz = 0; bz < blocks; bz++) {
+            for (int bx = 0; bx < blocks; bx++) {
+                ChunkSnapshot chunk = area.chunks()[bx >> 4][bz >> 4];
+                int rgb;
+                if (chunk == null) {
+                    rgb = UNLOADED;
+                    heights[bx] = Integer.MIN_VALUE;
+                } else {
+                    int y = chunk.getHighestBlockYAt(bx & 15, bz & 15);
+                    rgb = colorOf(chunk.getBlockType(bx & 15, y, bz & 15));
+                    // 北隣より高ければ明るく、低ければ暗く
+                    int north = bz > 0 ? heights[bx] : y;
+                    if (north != Integer.MIN_VALUE) {
+                        rgb = shade(rgb, y > north ? 1.15 : y < north ? 0.8 : 1.0);
+                    }
+                    heights[bx] = y;
+                }
+                fill(image, bx * pixelsPerBlock, bz * pixelsPerBlock, pixelsPerBlock, rgb);
+            }
+        }
+        // プレイヤーの位置に印を付ける
+        int px = (area.centerX() - area.originChunkX() * 16) * pixelsPerBlock;
+        int pz = (area.centerZ() - area.originChunkZ() * 16) * pixelsPerBlock;
+        int marker = Math.max(3, pixelsPerBlock * 2);
+        fill(image, px - marker / 2, pz - marker / 2, marker, MARKER);
+        ImageIO.write(image, "png", output.toFile());
+        return size;
+    }
+
+    private static void fill(BufferedImage image, int x, int y, int size, int rgb) {
+        for (int dy = 0; dy < size; dy++) {
+            for (int dx = 0; dx < size; dx++) {
+                int px = x + dx;
+                int py = y + dy;
+                if (px >= 0 && py >= 0 && px < image.getWidth() && py < image.getHeight()) {
+                    image.setRGB(px, py, rgb);
+                }
+            }
+        }
+    }
+
+    private static int shade(int rgb, double factor) {
+        int r = Math.min(255, (int) (((rgb >> 16) & 0xFF) * factor));
+        int g = Math.min(255, (int) (((rgb >> 8) & 0xFF) * factor));
+        int b = Math.min(255, (int) ((rgb & 0xFF) * factor));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // ブロックの色 (名前から大まかに決め、ブロックの種類ごとに覚えておく)
+    private static int colorOf(Material material) {
+        synchronized (COLORS) {
+            return COLORS.computeIfAbsent(material, MapRenderer::guessColor);
+        }
+    }
+
+    private static int guessColor(Material material) {
+        String name = material.name();
+        if (name.contains("WATER") || name.contains("KELP") || name.contains("SEAGRASS")) {
+            return 0x3F6FD8;
+        } else if (name.contains("LAVA") || name.contains("MAGMA")) {
+            return 0xE0641E;
+        } else if (name.contains("SNOW") || name.contains("ICE") || name.contains("POWDER")) {
+            return 0xF0F4FA;
+        } else if (name.contains("LEAVES") || name.contains("VINE") || name.contains("MOSS")) {
+            return 0x3C7A28;
+        } else if (name.contains("GRASS") || name.contains("FERN")) {
+            return 0x6DA33C;
+        } else if (name.contains("SAND") || name.contains("END_STONE")) {
+            return 0xDBD3A0;
+        } else if (name.contains("LOG") || name.contains("WOOD") || name.contains("PLANKS") || name.contains("DIRT")
+                || name.contains("PODZOL") || name.contains("MUD")) {
+            return 0x8B6A43;
+        } else if (name.contains("NETHERRACK") || name.contains("CRIMSON")) {
+            return 0x7A2E2E;
+        } else if (name.contains("STONE") || name.contains("ORE") || name.contains("GRAVEL") || name.contains("ANDESITE")
+                || name.contains("DIORITE") || name.contains("GRANITE") || name.contains("DEEPSLATE") || name.contains("TUFF")) {
+            return 0x808080;
+        }
+        return 0x9A8F7A;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.blueskyplugin;
+
+import java.util.Locale;
+
+// プレイヤーに送るメッセージの一覧 (lang/*.properties のキーは小文字にしたもの)
+// 順番がそのまま MessageCatalog のテンプレート配列の添字になる
+public enum Message {
+    USAGE,
+    USAGE_LOGIN,
+    USAGE_POST,
+    USAGE_LANG,
+    USAGE_TL,
+    USAGE_FEED,
+    USAGE_LIVE,
+    USAGE_AUTOPOST,
+    PLAYERS_ONLY,
+    MUST_LOGIN,
+    LOGIN_SUCCESS,
+    LOGIN_FAILED,
+    POST_SUCCESS,
+    POST_QUEUED,
+    POST_FAILED,
+    POST_DROPPED,
+    NOT_LOGGED_IN,
+    LOGOUT_SUCCESS,
+    INVALID_COMMAND,
+    TIMELINE_HEADER,
+    TIMELINE_PAGE,
+    TIMELINE_NO_MORE,
+    TIMELINE_FAILED,
+    TIMELINE_CACHED,
+    TIMELINE_NEW,
+    TIMELINE_STALE,
+    POST_OPEN_HINT,
+    FEED_LIST_FAILED,
+    FEED_LIST_SAVED,
+    FEED_LIST_CREATED,
+    FEED_LIST_ENTRY,
+    FEED_HEADER,
+    FEED_NOT_FOUND,
+    FEED_SEARCH_FAILED,
+    FEED_FAILED,
+    ERROR_OCCURRED,
+    SERVICE_UNAVAILABLE,
+    REQUEST_IN_PROGRESS,
+    NO_PERMISSION,
+    STATS_HEADER,
+    LANG_CHANGED,
+    RELOAD_DONE,
+    NOTIFICATION_LIKE,
+    NOTIFICATION_REPOST,
+    NOTIFICATION_FOLLOW,
+    NOTIFICATION_MENTION,
+    NOTIFICATION_REPLY,
+    NOTIFICATION_QUOTE,
+    NOTIFICATION_OTHER,
+    NOTIFICATION_MORE,
+    NOTIFICATION_UNREAD,
+    LIVE_LABEL,
+    LIVE_ON,
+    LIVE_OFF,
+    LIVE_DISABLED,
+    LIVE_FAILED,
+    AUTOPOST_ON,
+    AUTOPOST_OFF,
+    AUTOPOST_DISABLED,
+    AUTOPOST_ADVANCEMENT,
+    AUTOPOST_BOSS,
+    AUTOPOST_MILESTONE,
+    IMAGES_DISABLED,
+    IMAGE_NOT_FOUND,
+    IMAGE_BUSY,
+    IMAGE_FAILED,
+    IMAGE_MAP_ALT;
+
+    private final String key = name().toLowerCase(Locale.ROOT);
+
+    public String key() {
+        return key;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// lang/*.properties から読み込んだメッセージ辞書
+// 読み込み時にテンプレートを解析しておき、送信時は配列を引いて引数を埋めるだけにする
+// 言語は jar 内の既定ファイルにデータフォルダの lang/ を重ねたもので、reload() で読み直せる
+public class MessageCatalog {
+    // jar に同梱している言語 (最初の言語が足りないキーの補完に使われる)
+    private static final String[] BUNDLED = {"en", "ja"};
+    // 以前のバージョンで保存していた言語名
+    private static final Map<String, String> ALIASES = Map.of("english", "en", "japanese", "ja", "jp", "ja");
+
+    // %s / %d / %1$s / %% / %n だけを扱う、解析済みのテンプレート
+    public static final class Template {
+        private final String[] literals;
+        private final int[] args;
+        private final int length;
+
+        private Template(String[] literals, int[] args) {
+            this.literals = literals;
+            this.args = args;
+            int total = 0;
+            for (String literal : literals) {
+                total += literal.length();
+            }
+            this.length = total;
+        }
+
+        static Template parse(String pattern) {
+            List<String> literals = new ArrayList<>();
+            List<Integer> args = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            int nextArg = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c != '%' || i + 1 >= pattern.length()) {
+                    current.append(c);
+                    continue;
+                }
+                char next = pattern.charAt(i + 1);
+                if (next == '%') {
+                    current.append('%');
+                    i++;
+                    continue;
+                }
+                if (next == 'n') {
+                    current.append('\n');
+                    i++;
+                    continue;
+                }
+                // %1$s のような位置指定
+                int j = i + 1;
+                while (j < pattern.length() && Character.isDigit(pattern.charAt(j))) {
+                    j++;
+                }
+                int index;
+                if (j > i + 1 && j < pattern.length() && pattern.charAt(j) == '$') {
+                    index = Integer.parseInt(pattern.substring(i + 1, j)) - 1;
+                    j++;
+                } else {
+                    j = i + 1;
+                    index = nextArg++;
+                }
+                if (j < pattern.length() && (pattern.charAt(j) == 's' || pattern.charAt(j) == 'd')) {
+                    literals.add(current.toString());
+                    current.setLength(0);
+                    args.add(index);
+                    i = j;
+                } else {
+                    current.append(c);
+                }
+            }
+            literals.add(current.toString());
+            return new Template(literals.toArray(new String[0]), args.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        public String format(Object... values) {
+            if (args.length == 0) {
+                return literals[0];
+            }
+            StringBuilder out = new StringBuilder(length + 16 * args.length);
+            for (int i = 0; i < args.length; i++) {
+                out.append(literals[i]);
+                int index = args[i];
+                if (values != null && index < values.length) {
+                    out.append(values[index]);
+                }
+            }
+            return out.append(literals[args.length]).toString();
+        }
+    }
+
+    // 1つの言語 (Messageの順番に並んだテンプレート)
+    public static final class Language {
+        private final String code;
+        private final String name;
+        private final Template[] templates;
+
+        private Language(String code, String name, Template[] templates) {
+            this.code = code;
+            this.name = name;
+            this.templates = templates;
+        }
+
+        public String code() {
+            return code;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String format(Message message, Object... args) {
+            return templates[message.ordinal()].format(args);
+        }
+    }
+
+    private final Path overrideDirectory;
+    private final String defaultCode;
+    private final Logger logger;
+    private volatile Map<String, Language> languages = Map.of();
+    // プレイヤーごとに決まった言語 (言語の変更・クライアントの言語の変更・退出・再読み込みで消す)
+    private final Map<UUID, Language> playerLanguages = new ConcurrentHashMap<>();
+
+    public MessageCatalog(Path overrideDirectory, String defaultCode, Logger logger) {
+        this.overrideDirectory = overrideDirectory;
+        this.defaultCode = defaultCode;
+        this.logger = logger;
+        reload();
+    }
+
+    // 全言語を読み直す (読み終わってから差し替えるので、読み込み中も古い辞書で送信できる)
+    public void reload() {
+        Map<String, Properties> sources = new LinkedHashMap<>();
+        for (String code : BUNDLED) {
+            sources.put(code, readBundled(code));
+        }
+        if (overrideDirectory != null && Files.isDirectory(overrideDirectory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(overrideDirectory, "*.properties")) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    String code = fileName.substring(0, fileName.length() - ".properties".length()).toLowerCase(Locale.ROOT);
+                    Properties properties = new Properties(sources.get(code));
+                    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        properties.load(reader);
+                    }
+                    sources.put(code, properties);
+                }
+            } catch (IOException e) {
+                logger.warning("言語ファイルの読み込みに失敗しました: " + e.getMessage());
+            }
+        }
+
+        Properties base = sources.get(BUNDLED[0]);
+        Map<String, Language> loaded = new LinkedHashMap<>();
+        sources.forEach((code, properties) -> {
+            Template[] templates = new Template[Message.values().length];
+            for (Message message : Message.values()) {
+                String pattern = properties.getProperty(message.key());
+                if (pattern == null) {
+                    pattern = base.getProperty(message.key(), message.key());
+                }
+                templates[message.ordinal()] = Template.parse(pattern);
+            }
+            loaded.put(code, new Language(code, properties.getProperty("language.name", code), templates));
+        });
+        languages = Collections.unmodifiableMap(loaded);
+        playerLanguages.clear();
+    }
+
+    public Set<String> codes() {
+        return languages.keySet();
+    }
+
+    // 言語コードまたは以前の言語名 (english / japanese) を言語コードにする (無ければnull)
+    public String normalize(String name) {
+        if (name == null) {
+            return null;
+        }
+        String lower = name.toLowerCase(Locale.ROOT).replace('-', '_');
+        String code = ALIASES.getOrDefault(lower, lower);
+        if (languages.containsKey(code)) {
+            return code;
+        }
+        int underscore = code.indexOf('_');
+        if (underscore > 0 && languages.containsKey(code.substring(0, underscore))) {
+            return code.substring(0, underscore);
+        }
+        return null;
+    }
+
+    public Language language(String code) {
+        String normalized = normalize(code);
+        return normalized != null ? languages.get(normalized) : null;
+    }
+
+    public Language defaultLanguage() {
+        Language language = language(defaultCode);
+        return language != null ? language : languages.get(BUNDLED[0]);
+    }
+
+    // 保存された設定 → クライアントの言語 → 既定の言語 の順に決める
+    public Language resolve(String preference, Locale clientLocale) {
+        Language language = language(preference);
+        if (language == null && clientLocale != null) {
+            language = language(clientLocale.toString());
+        }
+        return language != null ? language : defaultLanguage();
+    }
+
+    public Language forPlayer(UUID playerId, Supplier<String> preference, Supplier<Locale> clientLocale) {
+        Language cached = playerLanguages.get(playerId);
+        if (cached != null) {
+            return cached;
+        }
+        Language language = resolve(preference.get(), clientLocale.get());
+        playerLanguages.put(playerId, language);
+        return language;
+    }
+
+    public void invalidate(UUID playerId) {
+        playerLanguages.remove(playerId);
+    }
+
+    private Properties readBundled(String code) {
+        Properties properties = new Properties();
+        try (InputStream in = MessageCatalog.class.getResourceAsStream("/lang/" + code + ".properties")) {
+            if (in != null) {
+                properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            logger.warning("同梱の言語ファイルを読み込めません (" + code + "): " + e.getMessage());
+        }
+        return properties;
+    }
+}
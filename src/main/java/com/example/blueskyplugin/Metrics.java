@@ -0,0 +1,280 @@
+package com.example.blueskyplugin;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// プラグイン内の計測値 (XRPCの遅延、エラー・再試行・キャッシュのカウンター、メインスレッド時間、保存時間)
+// 記録はLongAdderへの加算だけなので、どのスレッドから呼んでも軽い
+public class Metrics implements MetricsMXBean {
+    // XRPC呼び出し用のバケット (ミリ秒)
+    private static final long[] LATENCY_BOUNDS = nanos(TimeUnit.MILLISECONDS,
+            5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000);
+    // メインスレッドの処理用のバケット (マイクロ秒)
+    private static final long[] MAIN_THREAD_BOUNDS = nanos(TimeUnit.MICROSECONDS,
+            10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 50000);
+    // ファイル保存用のバケット (ミリ秒)
+    private static final long[] FLUSH_BOUNDS = nanos(TimeUnit.MILLISECONDS,
+            1, 5, 10, 25, 50, 100, 250, 500, 1000, 5000);
+
+    private static final String OBJECT_NAME = "com.example.blueskyplugin:type=Metrics";
+
+    // 固定バケットのヒストグラム (パーセンタイルはバケットの上限で近似する)
+    public static final class Histogram {
+        private final long[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            int i = 0;
+            while (i < bounds.length && nanos > bounds[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sumNanos() {
+            return sumNanos.sum();
+        }
+
+        // q (0〜1) のパーセンタイル (ナノ秒)。最後のバケットに入った場合は最大の境界値を返す
+        public long percentile(double q) {
+            long total = count();
+            if (total == 0) {
+                return 0L;
+            }
+            long target = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= target) {
+                    return bounds[i];
+                }
+            }
+            return bounds[bounds.length - 1];
+        }
+
+        // Prometheus形式のバケット行を書く
+        void writePrometheus(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                        .append(bounds[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[bounds.length].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(braces).append(' ').append(sumNanos() / 1e9).append('\n');
+            out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    private final Map<String, Histogram> xrpcLatency = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> xrpcErrors = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> cacheHits = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> cacheMisses = new ConcurrentHashMap<>();
+    private final Histogram mainThread = new Histogram(MAIN_THREAD_BOUNDS);
+    private final Histogram flush = new Histogram(FLUSH_BOUNDS);
+
+    // XRPC呼び出し1回分を記録する
+    public void recordXrpc(String nsid, long nanos, boolean error) {
+        xrpcLatency.computeIfAbsent(nsid, k -> new Histogram(LATENCY_BOUNDS)).record(nanos);
+        if (error) {
+            xrpcErrors.computeIfAbsent(nsid, k -> new LongAdder()).increment();
+        }
+    }
+
+    public void increment(String counter) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).increment();
+    }
+
+    public void add(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    public void cacheHit(String cache) {
+        cacheHits.computeIfAbsent(cache, k -> new LongAdder()).increment();
+    }
+
+    public void cacheMiss(String cache) {
+        cacheMisses.computeIfAbsent(cache, k -> new LongAdder()).increment();
+    }
+
+    public void recordMainThread(long nanos) {
+        mainThread.record(nanos);
+    }
+
+    public void recordFlush(long nanos) {
+        flush.record(nanos);
+    }
+
+    // /bsky stats 用の表示行
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        new TreeMap<>(xrpcLatency).forEach((nsid, histogram) -> lines.add(String.format(
+                "§e%s§r n=%d err=%d p50=%dms p95=%dms p99=%dms", nsid, histogram.count(), sum(xrpcErrors.get(nsid)),
+                millis(histogram.percentile(0.50)), millis(histogram.percentile(0.95)), millis(histogram.percentile(0.99)))));
+        lines.add(String.format("§emain-thread§r n=%d total=%.1fms p99=%dus", mainThread.count(),
+                mainThread.sumNanos() / 1e6, TimeUnit.NANOSECONDS.toMicros(mainThread.percentile(0.99))));
+        lines.add(String.format("§eflush§r n=%d p50=%dms p99=%dms", flush.count(),
+                millis(flush.percentile(0.50)), millis(flush.percentile(0.99))));
+        for (String cache : cacheNames()) {
+            lines.add(String.format("§ecache %s§r hit=%d miss=%d", cache, sum(cacheHits.get(cache)), sum(cacheMisses.get(cache))));
+        }
+        new TreeMap<>(counters).forEach((name, value) -> lines.add("§e" + name + "§r " + value.sum()));
+        return lines;
+    }
+
+    // Prometheusのテキスト形式
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# TYPE bluesky_xrpc_request_duration_seconds histogram\n");
+        new TreeMap<>(xrpcLatency).forEach((nsid, histogram) ->
+                histogram.writePrometheus(out, "bluesky_xrpc_request_duration_seconds", "endpoint=\"" + nsid + "\""));
+        out.append("# TYPE bluesky_xrpc_errors_total counter\n");
+        new TreeMap<>(xrpcErrors).forEach((nsid, value) ->
+                out.append("bluesky_xrpc_errors_total{endpoint=\"").append(nsid).append("\"} ").append(value.sum()).append('\n'));
+        out.append("# TYPE bluesky_cache_hits_total counter\n");
+        for (String cache : cacheNames()) {
+            out.append("bluesky_cache_hits_total{cache=\"").append(cache).append("\"} ").append(sum(cacheHits.get(cache))).append('\n');
+        }
+        out.append("# TYPE bluesky_cache_misses_total counter\n");
+        for (String cache : cacheNames()) {
+            out.append("bluesky_cache_misses_total{cache=\"").append(cache).append("\"} ").append(sum(cacheMisses.get(cache))).append('\n');
+        }
+        new TreeMap<>(counters).forEach((name, value) -> {
+            String metric = "bluesky_" + name + "_total";
+            out.append("# TYPE ").append(metric).append(" counter\n");
+            out.append(metric).append(' ').append(value.sum()).append('\n');
+        });
+        out.append("# TYPE bluesky_main_thread_seconds histogram\n");
+        mainThread.writePrometheus(out, "bluesky_main_thread_seconds", "");
+        out.append("# TYPE bluesky_flush_duration_seconds histogram\n");
+        flush.writePrometheus(out, "bluesky_flush_duration_seconds", "");
+        return out.toString();
+    }
+
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        try {
+            server.registerMBean(this, name);
+        } catch (InstanceAlreadyExistsException e) {
+            // /reload で前のインスタンスが残っている場合は置き換える
+            server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        }
+    }
+
+    public void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ignored) {
+            // 停止中なので無視する
+        }
+    }
+
+    @Override
+    public Map<String, Long> getXrpcRequests() {
+        Map<String, Long> result = new TreeMap<>();
+        xrpcLatency.forEach((nsid, histogram) -> result.put(nsid, histogram.count()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getXrpcErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        xrpcErrors.forEach((nsid, value) -> result.put(nsid, value.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getXrpcP99Millis() {
+        Map<String, Double> result = new TreeMap<>();
+        xrpcLatency.forEach((nsid, histogram) -> result.put(nsid, histogram.percentile(0.99) / 1e6));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, value) -> result.put(name, value.sum()));
+        cacheHits.forEach((cache, value) -> result.put("cache_hits." + cache, value.sum()));
+        cacheMisses.forEach((cache, value) -> result.put("cache_misses." + cache, value.sum()));
+        return result;
+    }
+
+    @Override
+    public double getMainThreadMillis() {
+        return mainThread.sumNanos() / 1e6;
+    }
+
+    @Override
+    public double getMainThreadP99Millis() {
+        return mainThread.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flush.count();
+    }
+
+    @Override
+    public double getFlushP99Millis() {
+        return flush.percentile(0.99) / 1e6;
+    }
+
+    private List<String> cacheNames() {
+        TreeSet<String> names = new TreeSet<>(cacheHits.keySet());
+        names.addAll(cacheMisses.keySet());
+        return new ArrayList<>(names);
+    }
+
+    private static long sum(LongAdder adder) {
+        return adder == null ? 0L : adder.sum();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long[] nanos(TimeUnit unit, long... values) {
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = unit.toNanos(values[i]);
+        }
+        return result;
+    }
+}
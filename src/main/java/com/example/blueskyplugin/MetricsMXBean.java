@@ -0,0 +1,27 @@
+package com.example.blueskyplugin;
+
+import java.util.Map;
+
+// JMXで公開するメトリクス (com.example.blueskyplugin:type=Metrics)
+public interface MetricsMXBean {
+    // エンドポイントごとのリクエスト数
+    Map<String, Long> getXrpcRequests();
+
+    // エンドポイントごとのエラー数 (通信失敗・4xx・5xx)
+    Map<String, Long> getXrpcErrors();
+
+    // エンドポイントごとの99パーセンタイル (ミリ秒)
+    Map<String, Double> getXrpcP99Millis();
+
+    // 再試行・キャッシュヒットなどのカウンター
+    Map<String, Long> getCounters();
+
+    // メインスレッドで使った合計時間 (ミリ秒)
+    double getMainThreadMillis();
+
+    double getMainThreadP99Millis();
+
+    long getFlushCount();
+
+    double getFlushP99Millis();
+}
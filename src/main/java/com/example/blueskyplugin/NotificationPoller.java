@@ -0,0 +1,246 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+// オンラインでログイン済みのプレイヤー全員の通知 (返信・いいね・メンションなど) をまとめて確認する
+// まず getUnreadCount (前回知らせた時刻 seenAt 以降の件数) だけを見て、件数が変わった時だけ listNotifications を呼ぶ
+// 確認間隔はプレイヤーごとに変え、同時に動く確認と1秒あたりの確認数に上限を設けて、人数が増えてもリクエスト数が増えすぎないようにする
+// (Bluesky側の既読 updateSeen は呼ばない。アプリの未読表示はそのまま残る)
+public class NotificationPoller {
+    // 結果をプレイヤーに知らせる (メッセージと引数)
+    @FunctionalInterface
+    public interface Notifier {
+        void notify(UUID playerId, Message message, Object... args);
+    }
+
+    // プレイヤーごとの確認の予定
+    private static final class Tracker {
+        private long intervalMillis;
+        private long nextPollAt;
+        private int lastCount = -1;
+        private boolean polling;
+
+        private Tracker(long intervalMillis, long nextPollAt) {
+            this.intervalMillis = intervalMillis;
+            this.nextPollAt = nextPollAt;
+        }
+    }
+
+    private static final int NOTIFICATION_TEXT_LENGTH = 60;
+
+    private final XrpcClient xrpc;
+    private final SessionManager sessionManager;
+    private final PlayerStore store;
+    private final Executor executor;
+    private final Notifier notifier;
+    private final Logger logger;
+    private final Metrics metrics;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final int maxPollsPerTick;
+    private final int maxPerPoll;
+    // 同時に実行できる確認の数
+    private final Semaphore workers;
+    private final Map<UUID, Tracker> trackers = new ConcurrentHashMap<>();
+
+    public NotificationPoller(XrpcClient xrpc, SessionManager sessionManager, PlayerStore store, Executor executor,
+                              Notifier notifier, Logger logger, Metrics metrics, long minIntervalMillis,
+                              long maxIntervalMillis, int workers, int maxPollsPerTick, int maxPerPoll) {
+        this.xrpc = xrpc;
+        this.sessionManager = sessionManager;
+        this.store = store;
+        this.executor = executor;
+        this.notifier = notifier;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+        this.workers = new Semaphore(Math.max(1, workers));
+        this.maxPollsPerTick = Math.max(1, maxPollsPerTick);
+        this.maxPerPoll = Math.max(1, maxPerPoll);
+    }
+
+    // 定期的に呼ばれ、確認の時刻が来たプレイヤーを古い順に上限まで確認する
+    // players: オンラインでログイン済みのプレイヤー
+    public void tick(Collection<UUID> players) {
+        long now = System.currentTimeMillis();
+        trackers.keySet().retainAll(players);
+        List<Map.Entry<UUID, Tracker>> due = new ArrayList<>();
+        for (UUID playerId : players) {
+            // 新しく来たプレイヤーは最初の確認をばらけさせる
+            Tracker tracker = trackers.computeIfAbsent(playerId, id -> new Tracker(minIntervalMillis,
+                    now + ThreadLocalRandom.current().nextLong(minIntervalMillis + 1)));
+            synchronized (tracker) {
+                if (!tracker.polling && tracker.nextPollAt <= now) {
+                    due.add(Map.entry(playerId, tracker));
+                }
+            }
+        }
+        due.sort((a, b) -> Long.compare(a.getValue().nextPollAt, b.getValue().nextPollAt));
+        int started = 0;
+        for (Map.Entry<UUID, Tracker> entry : due) {
+            // 上限に達したら残りは次の回に回す (待たされた人から先に確認される)
+            if (started >= maxPollsPerTick || !workers.tryAcquire()) {
+                break;
+            }
+            Tracker tracker = entry.getValue();
+            synchronized (tracker) {
+                tracker.polling = true;
+            }
+            started++;
+            executor.execute(() -> {
+                try {
+                    poll(entry.getKey(), tracker);
+                } finally {
+                    synchronized (tracker) {
+                        tracker.polling = false;
+                    }
+                    workers.release();
+                }
+            });
+        }
+    }
+
+    // コマンドを使ったプレイヤーは遊んでいるので、確認間隔を最短に戻す
+    public void touch(UUID playerId) {
+        Tracker tracker = trackers.get(playerId);
+        if (tracker == null) {
+            return;
+        }
+        synchronized (tracker) {
+            tracker.intervalMillis = minIntervalMillis;
+            tracker.nextPollAt = Math.min(tracker.nextPollAt, System.currentTimeMillis() + minIntervalMillis);
+        }
+    }
+
+    public void forget(UUID playerId) {
+        trackers.remove(playerId);
+    }
+
+    private void poll(UUID playerId, Tracker tracker) {
+        metrics.increment("notification_polls");
+        String seenAt = store.get(playerId).seenAt();
+        boolean delivered = false;
+        try {
+            int count = sessionManager.call(playerId, jwt -> seenAt == null
+                    ? xrpc.get("app.bsky.notification.getUnreadCount", jwt)
+                    : xrpc.get("app.bsky.notification.getUnreadCount", jwt, "seenAt", seenAt)).requireOk().json().optInt("count");
+            boolean changed;
+            synchronized (tracker) {
+                changed = count != tracker.lastCount;
+                tracker.lastCount = count;
+            }
+            if (changed && count > 0) {
+                delivered = deliver(playerId, seenAt, count);
+                if (delivered) {
+                    // seenAt を進めたので次の件数は0から数え直しになる
+                    synchronized (tracker) {
+                        tracker.lastCount = 0;
+                    }
+                }
+            }
+            long grown;
+            synchronized (tracker) {
+                grown = tracker.intervalMillis * 3 / 2;
+            }
+            reschedule(tracker, delivered ? minIntervalMillis : grown);
+        } catch (IOException e) {
+            // 繋がらない間は最長の間隔で待つ
+            reschedule(tracker, maxIntervalMillis);
+            if (!(e instanceof ServiceUnavailableException)) {
+                logger.fine("通知の確認に失敗しました (" + playerId + "): " + e.getMessage());
+            }
+        }
+    }
+
+    // seenAt 以降の通知を新しい順に取得して知らせ、seenAt を最新の通知の時刻に進める
+    // seenAt が無い (初めての確認) 場合は件数だけを知らせる
+    private boolean deliver(UUID playerId, String seenAt, int count) throws IOException {
+        int limit = seenAt == null ? 1 : Math.min(count, maxPerPoll);
+        JSONArray items = sessionManager.call(playerId, jwt -> xrpc.get("app.bsky.notification.listNotifications", jwt,
+                "limit", String.valueOf(limit))).requireOk().json().optJSONArray("notifications", new JSONArray());
+        if (items.isEmpty()) {
+            return false;
+        }
+        String newest = items.getJSONObject(0).optString("indexedAt", null);
+        if (newest == null) {
+            return false;
+        }
+        if (seenAt == null) {
+            notifier.notify(playerId, Message.NOTIFICATION_UNREAD, count);
+        } else {
+            int shown = 0;
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                if (isAfter(item.optString("indexedAt", null), seenAt)) {
+                    notify(playerId, item);
+                    shown++;
+                }
+            }
+            if (shown == 0) {
+                return false;
+            }
+            metrics.add("notifications_shown", shown);
+            if (count > shown) {
+                notifier.notify(playerId, Message.NOTIFICATION_MORE, count - shown);
+            }
+        }
+        store.update(playerId, data -> data.withSeenAt(newest));
+        return true;
+    }
+
+    private void notify(UUID playerId, JSONObject item) {
+        JSONObject author = item.optJSONObject("author", new JSONObject());
+        String name = author.optString("displayName", "");
+        if (name.isBlank()) {
+            name = "@" + author.optString("handle", "?");
+        }
+        String text = PostRenderer.truncate(item.optJSONObject("record", new JSONObject()).optString("text", "")
+                .replace('\n', ' '), NOTIFICATION_TEXT_LENGTH);
+        String reason = item.optString("reason", "");
+        switch (reason) {
+            case "like" -> notifier.notify(playerId, Message.NOTIFICATION_LIKE, name);
+            case "repost" -> notifier.notify(playerId, Message.NOTIFICATION_REPOST, name);
+            case "follow" -> notifier.notify(playerId, Message.NOTIFICATION_FOLLOW, name);
+            case "mention" -> notifier.notify(playerId, Message.NOTIFICATION_MENTION, name, text);
+            case "reply" -> notifier.notify(playerId, Message.NOTIFICATION_REPLY, name, text);
+            case "quote" -> notifier.notify(playerId, Message.NOTIFICATION_QUOTE, name, text);
+            default -> notifier.notify(playerId, Message.NOTIFICATION_OTHER, name, reason);
+        }
+    }
+
+    // 通知が来れば最短に戻り、何も無ければ少しずつ長くなる (ジッターで確認の時刻をばらけさせる)
+    private void reschedule(Tracker tracker, long intervalMillis) {
+        long interval = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, intervalMillis));
+        long jitter = ThreadLocalRandom.current().nextLong(interval / 10 + 1);
+        synchronized (tracker) {
+            tracker.intervalMillis = interval;
+            tracker.nextPollAt = System.currentTimeMillis() + interval - interval / 20 + jitter;
+        }
+    }
+
+    private static boolean isAfter(String time, String seenAt) {
+        if (time == null) {
+            return false;
+        }
+        try {
+            return Instant.parse(time).isAfter(Instant.parse(seenAt));
+        } catch (DateTimeParseException e) {
+            return time.compareTo(seenAt) > 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+
+// プレイヤー1人分の保存データ (セッション・ハンドル・言語・ゲーム内で知らせた最新の通知の時刻・ゲーム内の出来事の自動投稿)
+public record PlayerData(Session session, String handle, String lang, String seenAt, boolean autoPost) {
+    public static final PlayerData EMPTY = new PlayerData(null, null, null, null, false);
+
+    public PlayerData withSession(Session session) {
+        return new PlayerData(session, handle, lang, seenAt, autoPost);
+    }
+
+    public PlayerData withHandle(String handle) {
+        return new PlayerData(session, handle, lang, seenAt, autoPost);
+    }
+
+    public PlayerData withLang(String lang) {
+        return new PlayerData(session, handle, lang, seenAt, autoPost);
+    }
+
+    public PlayerData withSeenAt(String seenAt) {
+        return new PlayerData(session, handle, lang, seenAt, autoPost);
+    }
+
+    public PlayerData withAutoPost(boolean autoPost) {
+        return new PlayerData(session, handle, lang, seenAt, autoPost);
+    }
+
+    public boolean isEmpty() {
+        return session == null && handle == null && lang == null && seenAt == null && !autoPost;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        if (session != null) {
+            json.put("accessJwt", session.accessJwt());
+            json.put("refreshJwt", session.refreshJwt());
+            json.put("did", session.did());
+        }
+        json.put("handle", handle);
+        json.put("lang", lang);
+        json.put("seenAt", seenAt);
+        if (autoPost) {
+            json.put("autoPost", true);
+        }
+        return json;
+    }
+
+    public static PlayerData fromJson(JSONObject json) {
+        String accessJwt = json.optString("accessJwt", null);
+        Session session = accessJwt == null ? null
+                : Session.of(accessJwt, json.optString("refreshJwt", null), json.optString("did", null));
+        return new PlayerData(session, json.optString("handle", null), json.optString("lang", null),
+                json.optString("seenAt", null), json.optBoolean("autoPost"));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.blueskyplugin;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// プレイヤーのデータをログイン前に読み込み、退出から猶予期間が過ぎたらメモリから外す
+public class PlayerDataListener implements Listener {
+    private final JavaPlugin plugin;
+    private final PlayerStore store;
+    private final long evictDelayTicks;
+    private final Consumer<UUID> evict;
+    private final Map<UUID, BukkitTask> pendingEvictions = new ConcurrentHashMap<>();
+
+    public PlayerDataListener(JavaPlugin plugin, PlayerStore store, long evictDelayTicks, Consumer<UUID> evict) {
+        this.plugin = plugin;
+        this.store = store;
+        this.evictDelayTicks = evictDelayTicks;
+        this.evict = evict;
+    }
+
+    // 非同期スレッドで呼ばれるので、ここでファイルを読んでもメインスレッドは止まらない
+    // 猶予期間中に別のサーバーから戻ってきた場合は、そちらで更新されたセッションを読み直す
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            store.revalidate(event.getUniqueId());
+        }
+    }
+
+    @EventHandler
+    public void onJoin(PlayerJoinEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        // 猶予期間中に戻ってきた場合はそのまま使う
+        BukkitTask pending = pendingEvictions.remove(playerId);
+        if (pending != null) {
+            pending.cancel();
+        }
+        store.load(playerId);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        // 別のサーバーへ移動した場合に備えて、変更はすぐに書いておく
+        if (store.isShared()) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> store.flush(playerId));
+        }
+        BukkitTask task = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            pendingEvictions.remove(playerId);
+            if (plugin.getServer().getPlayer(playerId) == null) {
+                evict.accept(playerId);
+            }
+        }, evictDelayTicks);
+        BukkitTask previous = pendingEvictions.put(playerId, task);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+}
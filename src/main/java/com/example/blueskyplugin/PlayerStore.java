@@ -0,0 +1,279 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+// プレイヤーごとのデータを保存先 (SessionStore) から読み込み、オンラインのプレイヤーの分だけメモリに載せる
+// 起動時間もメモリ使用量も、過去にログインしたプレイヤーの総数には比例しない
+// 保存先を他のサーバーと共有している場合は、ログイン前に版を確かめて古ければ読み直し、
+// 書き込みが他のサーバーとぶつかったら読み直して合わせてから書き直す
+public class PlayerStore {
+    // 書き込みがぶつかった時に読み直して書き直す回数
+    private static final int MAX_CONFLICT_RETRIES = 3;
+
+    private final SessionStore backend;
+    private final Logger logger;
+    // 変更があった時に呼ばれる (書き込みの予約用)
+    private final Runnable onDirty;
+    private final Map<UUID, PlayerData> loaded = new ConcurrentHashMap<>();
+    // 最後に保存先から読んだ (または書いた) データと版 (ぶつかった時に、どちらが何を変えたかを見るため)
+    private final Map<UUID, SessionStore.Versioned> stored = new ConcurrentHashMap<>();
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+    private final Object writeLock = new Object();
+    // オフラインのプレイヤーのデータを一時的に読み込んでいる処理の数 (0になったらメモリから外す)
+    private final Map<UUID, Integer> borrowed = new HashMap<>();
+
+    public PlayerStore(SessionStore backend, Logger logger, Runnable onDirty) {
+        this.backend = backend;
+        this.logger = logger;
+        this.onDirty = onDirty;
+    }
+
+    // メモリ上のデータを返す (読み込まれていなければEMPTY)
+    public PlayerData get(UUID playerId) {
+        return loaded.getOrDefault(playerId, PlayerData.EMPTY);
+    }
+
+    public boolean isLoaded(UUID playerId) {
+        return loaded.containsKey(playerId);
+    }
+
+    // 保存先から読み込んでメモリに載せる (ログイン前の非同期イベントから呼ばれる)
+    // 一時的に読み込まれていた場合も、ログインしたのでそのまま残す
+    public PlayerData load(UUID playerId) {
+        synchronized (borrowed) {
+            borrowed.remove(playerId);
+        }
+        return loaded.computeIfAbsent(playerId, this::read);
+    }
+
+    // オフラインかもしれないプレイヤーのデータを一時的に使う (使い終わったら必ず release を呼ぶ)
+    // 既にメモリにある (オンラインなど) 場合はそのまま使い、release でも外さない
+    public PlayerData borrow(UUID playerId) {
+        synchronized (borrowed) {
+            if (!loaded.containsKey(playerId) || borrowed.containsKey(playerId)) {
+                borrowed.merge(playerId, 1, Integer::sum);
+            }
+            return loaded.computeIfAbsent(playerId, this::read);
+        }
+    }
+
+    // borrow で読み込んだデータを、他に使っている処理が無く、その間にログインもしていなければメモリから外す
+    public void release(UUID playerId) {
+        synchronized (borrowed) {
+            Integer count = borrowed.get(playerId);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                borrowed.put(playerId, count - 1);
+                return;
+            }
+            borrowed.remove(playerId);
+            evict(playerId);
+        }
+    }
+
+    // 他のサーバーが書き換えていれば読み直す (共有している保存先のみ。未保存の変更があれば書き込み時に合わせる)
+    public PlayerData revalidate(UUID playerId) {
+        if (!backend.isShared() || !loaded.containsKey(playerId)) {
+            return load(playerId);
+        }
+        synchronized (writeLock) {
+            try {
+                SessionStore.Versioned known = stored.get(playerId);
+                if (!dirty.contains(playerId) && (known == null || backend.version(playerId) != known.version())) {
+                    SessionStore.Versioned latest = backend.read(playerId);
+                    loaded.compute(playerId, (id, current) -> {
+                        if (dirty.contains(id)) {
+                            return current;
+                        }
+                        stored.put(id, latest);
+                        return latest.data();
+                    });
+                }
+            } catch (IOException e) {
+                logger.warning("Error loading data (" + playerId + "): " + e.getMessage());
+            }
+        }
+        return get(playerId);
+    }
+
+    // データを書き換えて保存を予約する
+    public PlayerData update(UUID playerId, UnaryOperator<PlayerData> change) {
+        PlayerData updated = loaded.compute(playerId, (id, current) -> {
+            PlayerData changed = change.apply(current != null ? current : read(id));
+            dirty.add(id);
+            return changed;
+        });
+        onDirty.run();
+        return updated;
+    }
+
+    public Set<Map.Entry<UUID, PlayerData>> entries() {
+        return loaded.entrySet();
+    }
+
+    // メモリから外す (未保存の変更があれば先に書き込む)
+    public void evict(UUID playerId) {
+        synchronized (writeLock) {
+            if (dirty.remove(playerId)) {
+                write(playerId);
+            }
+            loaded.remove(playerId);
+            stored.remove(playerId);
+        }
+    }
+
+    // 1人分の変更をすぐに書き込む (別のサーバーへ移動する前に)
+    public void flush(UUID playerId) {
+        synchronized (writeLock) {
+            if (dirty.remove(playerId)) {
+                write(playerId);
+            }
+        }
+    }
+
+    // 変更のあったプレイヤーの分だけ書き込む
+    public void writeDirty() {
+        synchronized (writeLock) {
+            for (UUID playerId : dirty.toArray(new UUID[0])) {
+                dirty.remove(playerId);
+                write(playerId);
+            }
+        }
+    }
+
+    // 他のサーバーと共有している保存先か
+    public boolean isShared() {
+        return backend.isShared();
+    }
+
+    public void close() {
+        try {
+            backend.close();
+        } catch (IOException e) {
+            logger.warning("Error closing data store: " + e.getMessage());
+        }
+    }
+
+    // players/ のJSONから、保存先にまだ無いプレイヤーの分を取り込む (SQLiteに切り替えた時に一度だけ)
+    public int importFrom(JsonSessionStore source) throws IOException {
+        int imported = 0;
+        for (UUID playerId : source.list()) {
+            PlayerData data = source.read(playerId).data();
+            if (!data.isEmpty() && backend.write(playerId, data, 0) != SessionStore.CONFLICT) {
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    // 旧形式の userdata.json を保存先に移す (一度だけ。既に保存先にあるプレイヤーは上書きしない)
+    public void migrateLegacy(Path legacyFile) {
+        if (!Files.exists(legacyFile)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(legacyFile)) {
+            JSONObject data = new JSONObject(new JSONTokener(in));
+            JSONObject tokens = data.optJSONObject("tokens", new JSONObject());
+            JSONObject refreshTokens = data.optJSONObject("refreshTokens", new JSONObject());
+            JSONObject dids = data.optJSONObject("dids", new JSONObject());
+            JSONObject handles = data.optJSONObject("handles", new JSONObject());
+            JSONObject langs = data.optJSONObject("lang", new JSONObject());
+
+            Set<String> uuids = new HashSet<>(tokens.keySet());
+            uuids.addAll(handles.keySet());
+            uuids.addAll(langs.keySet());
+            int migrated = 0;
+            for (String uuid : uuids) {
+                UUID playerId = UUID.fromString(uuid);
+                // 途中で止まった前回の移行や、既に保存先で使われているデータを旧形式で上書きしない
+                if (!backend.read(playerId).data().isEmpty()) {
+                    continue;
+                }
+                String accessJwt = tokens.optString(uuid, null);
+                Session session = accessJwt == null ? null
+                        : Session.of(accessJwt, refreshTokens.optString(uuid, null), dids.optString(uuid, null));
+                PlayerData playerData = new PlayerData(session, handles.optString(uuid, null), langs.optString(uuid, null), null, false);
+                if (backend.write(playerId, playerData, 0) != SessionStore.CONFLICT) {
+                    migrated++;
+                }
+            }
+            Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated"));
+            logger.info(migrated + "人分のユーザーデータを移行しました");
+        } catch (Exception e) {
+            logger.warning("Error migrating userdata.json: " + e.getMessage());
+        }
+    }
+
+    private PlayerData read(UUID playerId) {
+        try {
+            SessionStore.Versioned versioned = backend.read(playerId);
+            stored.put(playerId, versioned);
+            return versioned.data();
+        } catch (IOException e) {
+            logger.warning("Error loading data (" + playerId + "): " + e.getMessage());
+            return PlayerData.EMPTY;
+        }
+    }
+
+    // 版が一致すれば書き込む。他のサーバーが先に書いていたら、読み直して合わせてから書き直す
+    private void write(UUID playerId) {
+        PlayerData data = loaded.get(playerId);
+        if (data == null) {
+            return;
+        }
+        SessionStore.Versioned base = stored.getOrDefault(playerId, SessionStore.Versioned.NONE);
+        try {
+            for (int attempt = 0; attempt < MAX_CONFLICT_RETRIES; attempt++) {
+                long version = backend.write(playerId, data, base.version());
+                if (version != SessionStore.CONFLICT) {
+                    stored.put(playerId, new SessionStore.Versioned(data, version));
+                    return;
+                }
+                SessionStore.Versioned latest = backend.read(playerId);
+                SessionStore.Versioned previous = base;
+                data = loaded.compute(playerId, (id, local) -> merge(previous.data(), local, latest.data()));
+                base = latest;
+                stored.put(playerId, latest);
+            }
+            dirty.add(playerId);
+            logger.warning("Error saving data (" + playerId + "): 他のサーバーと書き込みがぶつかり続けています");
+        } catch (IOException e) {
+            // 次のフラッシュでもう一度書く
+            dirty.add(playerId);
+            logger.warning("Error saving data (" + playerId + "): " + e.getMessage());
+        }
+    }
+
+    // 前回読んだ内容 (base) から、このサーバー (local) と他のサーバー (remote) がそれぞれ変えた項目を合わせる
+    // 両方が変えた項目はこのサーバーの方を使う。ただしセッションは後から更新された (期限の遅い) 方、通知の時刻は新しい方
+    static PlayerData merge(PlayerData base, PlayerData local, PlayerData remote) {
+        // セッションとハンドルは組で扱う
+        boolean localLogin = !Objects.equals(local.session(), base.session()) || !Objects.equals(local.handle(), base.handle());
+        boolean remoteNewer = remote.session() != null && local.session() != null
+                && remote.session().accessExpiresAt() > local.session().accessExpiresAt();
+        PlayerData login = !localLogin || remoteNewer ? remote : local;
+        String lang = Objects.equals(local.lang(), base.lang()) ? remote.lang() : local.lang();
+        String seenAt = Objects.equals(local.seenAt(), base.seenAt()) ? remote.seenAt() : local.seenAt();
+        if (seenAt != null && remote.seenAt() != null && remote.seenAt().compareTo(seenAt) > 0) {
+            seenAt = remote.seenAt();
+        }
+        boolean autoPost = local.autoPost() == base.autoPost() ? remote.autoPost() : local.autoPost();
+        return new PlayerData(login.session(), login.handle(), lang, seenAt, autoPost);
+    }
+}
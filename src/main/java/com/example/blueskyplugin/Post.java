@@ -0,0 +1,10 @@
+package com.example.blueskyplugin;
+
+// 表示に必要なフィールドだけを持つ投稿
+public record Post(String uri, String handle, String displayName, String text, String createdAt) {
+
+    // 表示名が無い (または空の) 場合はハンドルを使う
+    public String authorName() {
+        return displayName == null || displayName.isEmpty() ? handle : displayName;
+    }
+}
@@ -0,0 +1,502 @@
+package com.example.blueskyplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+// デコード済みの投稿と、プレイヤーごとのタイムラインの先頭ページをディスクに残すキャッシュ (再起動しても消えない)
+// posts.log: 追記だけを行うログ。投稿 (AT-URIごとに1回だけ) とタイムライン (プレイヤーごとに最新のものが有効) のレコードを書く
+// posts.idx: キー (AT-URI か tl:<uuid>) のハッシュ → ログ内の位置、のオープンアドレスのハッシュ表。メモリマップで引く
+// ログが maxBytes を超えたら、新しいタイムラインとそこから参照される投稿だけを残して書き直す
+public class PostCache implements AutoCloseable {
+    private static final byte POST = 'P';
+    private static final byte TIMELINE = 'T';
+    private static final int INDEX_MAGIC = 0x42534B31;
+    // magic, 表の大きさ, 索引に入れ終わったログの長さ
+    private static final int INDEX_HEADER = 16;
+    private static final int SLOT = 16;
+    private static final int INITIAL_SLOTS = 4096;
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final long maxBytes;
+    private final Logger logger;
+
+    private FileChannel log;
+    private long logSize;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int slots;
+    private int used;
+
+    public PostCache(Path directory, long maxBytes, Logger logger) throws IOException {
+        Files.createDirectories(directory);
+        this.logFile = directory.resolve("posts.log");
+        this.indexFile = directory.resolve("posts.idx");
+        this.maxBytes = maxBytes;
+        this.logger = logger;
+        this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logSize = log.size();
+        // 前回差し替えられなかった索引の一時ファイルを消す (この時点ではどれもマップしていない)
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "posts.idx.*.tmp")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        openIndex();
+    }
+
+    // プレイヤーの保存されたタイムライン (無ければnull)
+    public synchronized TimelinePageCache.Page timeline(UUID playerId) throws IOException {
+        Record record = find(timelineKey(playerId));
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer in = record.payload();
+        long fetchedAt = in.getLong();
+        String nextCursor = readString(in);
+        int count = in.getInt();
+        if (count == 0) {
+            return null;
+        }
+        List<Post> posts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Record post = find(readString(in));
+            // 書き直しの途中で落ちた場合などに欠けていることがある
+            if (post != null) {
+                posts.add(readPost(post.key(), post.payload()));
+            }
+        }
+        return new TimelinePageCache.Page(posts, nextCursor, fetchedAt);
+    }
+
+    // タイムラインの先頭ページを保存する (まだ保存していない投稿だけを追記する)
+    public synchronized void putTimeline(UUID playerId, TimelinePageCache.Page page) throws IOException {
+        // URIの無い投稿はキーにできないので保存しない
+        List<Post> posts = new ArrayList<>(page.posts().size());
+        for (Post post : page.posts()) {
+            if (post.uri() != null) {
+                posts.add(post);
+            }
+        }
+        for (Post post : posts) {
+            if (lookup(post.uri()) < 0) {
+                append(POST, post.uri(), out -> {
+                    writeString(out, post.handle());
+                    writeString(out, post.displayName());
+                    writeString(out, post.text());
+                    writeString(out, post.createdAt());
+                });
+            }
+        }
+        append(TIMELINE, timelineKey(playerId), out -> {
+            out.writeLong(page.fetchedAt());
+            writeString(out, page.nextCursor());
+            out.writeInt(posts.size());
+            for (Post post : posts) {
+                writeString(out, post.uri());
+            }
+        });
+        if (logSize > maxBytes) {
+            compact();
+        }
+    }
+
+    // ログアウトしたプレイヤーのタイムラインを消す (空のタイムラインを追記し、書き直しの時に捨てる)
+    public synchronized void forget(UUID playerId) throws IOException {
+        if (lookup(timelineKey(playerId)) >= 0) {
+            putTimeline(playerId, new TimelinePageCache.Page(List.of(), null, 0));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.force();
+        log.close();
+        indexChannel.close();
+    }
+
+    // ---- ログ ----
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // レコード: [長さ int][種類 byte][キー][本体]
+    private void append(byte type, String key, PayloadWriter payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(type);
+        writeString(out, key);
+        payload.write(out);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(0, buffer.remaining() - 4);
+        long offset = logSize;
+        while (buffer.hasRemaining()) {
+            log.write(buffer, logSize + buffer.position());
+        }
+        logSize += buffer.limit();
+        put(key, offset);
+        index.putLong(8, logSize);
+    }
+
+    private record Record(byte type, String key, ByteBuffer payload, long next) {}
+
+    // offset のレコードを読む (途中で切れていればnull)
+    private Record read(long offset) throws IOException {
+        if (offset + 4 > logSize) {
+            return null;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        int size = length.getInt(0);
+        if (size < 1 || offset + 4 + size > logSize) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        readFully(body, offset + 4);
+        body.flip();
+        byte type = body.get();
+        String key = readString(body);
+        return new Record(type, key, body, offset + 4 + size);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + logFile.getFileName());
+            }
+        }
+    }
+
+    private Record find(String key) throws IOException {
+        long offset = lookup(key);
+        return offset < 0 ? null : read(offset);
+    }
+
+    // 新しいタイムラインから順に、maxBytes の半分に収まるだけ残して書き直す
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        List<Record> timelines = new ArrayList<>();
+        for (int slot = 0; slot < slots; slot++) {
+            long hash = index.getLong(INDEX_HEADER + slot * SLOT);
+            if (hash != 0) {
+                Record record = read(index.getLong(INDEX_HEADER + slot * SLOT + 8));
+                if (record != null && record.type() == TIMELINE) {
+                    timelines.add(record);
+                }
+            }
+        }
+        timelines.sort(Comparator.comparingLong((Record record) -> record.payload().getLong(record.payload().position()))
+                .reversed());
+
+        Path temp = logFile.resolveSibling("posts.log.tmp");
+        long written = 0;
+        int kept = 0;
+        Set<String> copied = new HashSet<>();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Record timeline : timelines) {
+                if (written > maxBytes / 2) {
+                    break;
+                }
+                ByteBuffer payload = timeline.payload().duplicate();
+                payload.getLong();
+                readString(payload);
+                int count = payload.getInt();
+                if (count == 0) {
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    String uri = readString(payload);
+                    long offset = lookup(uri);
+                    if (offset >= 0 && copied.add(uri)) {
+                        written += copy(offset, out, written);
+                    }
+                }
+                written += copy(lookup(timeline.key()), out, written);
+                kept++;
+            }
+            out.force(true);
+        }
+        // ログを置き換えた後に落ちても、古い位置を指す索引を次の起動で使わないようにする
+        invalidateIndex();
+        log.close();
+        try {
+            try {
+                Files.move(temp, logFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            reopen();
+        } catch (IOException | RuntimeException e) {
+            // 置き換えか開き直しに失敗しても、ログを閉じたままにしない (以後の呼び出しがすべて失敗してしまう)
+            // 置き換える前なら元のログを、置き換えた後なら新しいログを開き直して索引を作り直す
+            try {
+                Files.deleteIfExists(temp);
+                reopen();
+            } catch (IOException | RuntimeException again) {
+                e.addSuppressed(again);
+            }
+            throw e;
+        }
+        logger.fine("投稿キャッシュを書き直しました: " + kept + "人分のタイムライン, " + logSize + " bytes ("
+                + (System.nanoTime() - start) / 1_000_000 + "ms)");
+    }
+
+    // ログを開き直し、索引をログの先頭から作り直す
+    private void reopen() throws IOException {
+        if (log.isOpen()) {
+            log.close();
+        }
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logSize = log.size();
+        clearIndex(slots);
+        scan(0);
+    }
+
+    // レコードをそのまま別のログに写し、書いたバイト数を返す
+    private long copy(long offset, FileChannel out, long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer record = ByteBuffer.allocate(4 + length.getInt(0));
+        readFully(record, offset);
+        record.flip();
+        long written = 0;
+        while (record.hasRemaining()) {
+            written += out.write(record, position + written);
+        }
+        return written;
+    }
+
+    // ログを from から読んで索引に入れる。途中で切れたレコード (書き込み中に落ちた) があればそこで切り詰める
+    private void scan(long from) throws IOException {
+        long offset = from;
+        while (offset < logSize) {
+            Record record = read(offset);
+            if (record == null) {
+                logger.warning("投稿キャッシュの壊れた末尾を切り詰めました (" + (logSize - offset) + " bytes)");
+                log.truncate(offset);
+                logSize = offset;
+                break;
+            }
+            put(record.key(), offset);
+            offset = record.next();
+        }
+        index.putLong(8, logSize);
+    }
+
+    // ---- 索引 ----
+
+    private void openIndex() throws IOException {
+        long size = indexChannel.size();
+        if (size >= INDEX_HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            indexChannel.read(header, 0);
+            int magic = header.getInt(0);
+            int storedSlots = header.getInt(4);
+            long indexed = header.getLong(8);
+            if (magic == INDEX_MAGIC && Integer.bitCount(storedSlots) == 1
+                    && size == INDEX_HEADER + (long) storedSlots * SLOT && indexed <= logSize) {
+                map(storedSlots);
+                for (int slot = 0; slot < slots; slot++) {
+                    if (index.getLong(INDEX_HEADER + slot * SLOT) != 0) {
+                        used++;
+                    }
+                }
+                // 前回の終了後に追記された分 (落ちた場合など) だけを読む
+                scan(indexed);
+                return;
+            }
+        }
+        clearIndex(INITIAL_SLOTS);
+        scan(0);
+    }
+
+    private void map(int slotCount) throws IOException {
+        slots = slotCount;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slotCount * SLOT);
+    }
+
+    // 空の表を新しいファイルに作り、posts.idx と差し替える
+    // (マップしたままのファイルは Windows では切り詰められないので、使用中の索引ファイルには手を付けない)
+    private void clearIndex(int slotCount) throws IOException {
+        Path temp = Files.createTempFile(indexFile.getParent(), "posts.idx.", ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer;
+        try {
+            // 広げた部分は0で埋まっている
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) slotCount * SLOT);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        buffer.putInt(0, INDEX_MAGIC);
+        buffer.putInt(4, slotCount);
+        buffer.putLong(8, 0);
+
+        if (index != null) {
+            // 差し替えられずに古い索引が残っても、次の起動で使わないようにする
+            invalidateIndex();
+        }
+        indexChannel.close();
+        indexChannel = channel;
+        index = buffer;
+        slots = slotCount;
+        used = 0;
+        try {
+            try {
+                Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // 一時ファイルのまま使い続ける。次の起動でログから作り直す
+            logger.warning("投稿キャッシュの索引を置き換えられませんでした: " + e.getMessage());
+        }
+    }
+
+    // 索引を無効にする (次に開いた時はログの先頭から作り直す)
+    private void invalidateIndex() {
+        index.putInt(0, 0);
+        index.force();
+    }
+
+    // キーの位置 (無ければ -1)。ハッシュが同じでもキーが違えば次を探す
+    private long lookup(String key) throws IOException {
+        long hash = hash(key);
+        int mask = slots - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long stored = index.getLong(INDEX_HEADER + slot * SLOT);
+            if (stored == 0) {
+                return -1;
+            }
+            if (stored == hash) {
+                long offset = index.getLong(INDEX_HEADER + slot * SLOT + 8);
+                Record record = read(offset);
+                if (record != null && record.key().equals(key)) {
+                    return offset;
+                }
+            }
+        }
+    }
+
+    private void put(String key, long offset) throws IOException {
+        if ((used + 1) * 10L > slots * 6L) {
+            grow();
+        }
+        long hash = hash(key);
+        int mask = slots - 1;
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int position = INDEX_HEADER + slot * SLOT;
+            long stored = index.getLong(position);
+            if (stored == 0) {
+                index.putLong(position, hash);
+                index.putLong(position + 8, offset);
+                used++;
+                return;
+            }
+            if (stored == hash) {
+                Record record = read(index.getLong(position + 8));
+                if (record == null || record.key().equals(key)) {
+                    index.putLong(position + 8, offset);
+                    return;
+                }
+            }
+        }
+    }
+
+    // 表を倍にする (ハッシュは保存してあるので、ログは読み直さない)
+    private void grow() throws IOException {
+        long[] hashes = new long[used];
+        long[] offsets = new long[used];
+        int n = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            long hash = index.getLong(INDEX_HEADER + slot * SLOT);
+            if (hash != 0) {
+                hashes[n] = hash;
+                offsets[n++] = index.getLong(INDEX_HEADER + slot * SLOT + 8);
+            }
+        }
+        long indexed = index.getLong(8);
+        clearIndex(slots * 2);
+        int mask = slots - 1;
+        for (int i = 0; i < n; i++) {
+            int slot = (int) hashes[i] & mask;
+            while (index.getLong(INDEX_HEADER + slot * SLOT) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index.putLong(INDEX_HEADER + slot * SLOT, hashes[i]);
+            index.putLong(INDEX_HEADER + slot * SLOT + 8, offsets[i]);
+        }
+        used = n;
+        index.putLong(8, indexed);
+    }
+
+    // 64ビットのFNV-1a (0は空きの印なので使わない)
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static String timelineKey(UUID playerId) {
+        return "tl:" + playerId;
+    }
+
+    // ---- 文字列 ----
+
+    // [長さ int (nullは-1)][UTF-8]
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static Post readPost(String uri, ByteBuffer in) {
+        String handle = readString(in);
+        String displayName = readString(in);
+        String text = readString(in);
+        String createdAt = readString(in);
+        return new Post(uri, handle, displayName, text, createdAt);
+    }
+}
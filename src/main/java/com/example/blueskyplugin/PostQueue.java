@@ -0,0 +1,529 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// サーバー全体で1つの投稿送信キュー
+// ratelimit-* ヘッダーを見て残り回数の範囲で送り、一時的な失敗はジッター付き指数バックオフで再試行する
+public class PostQueue {
+    // 送信待ちの投稿 (1件なら createRecord、複数なら applyWrites の1回の呼び出しでまとめて書き込む)
+    // rkeys: 追加した時に決めておくレコードのキー (TID)。再送でも同じキーを送るので、前回の書き込みが届いていれば二重にならない
+    // images: 1件の投稿に添付する画像 (送信のたびにアップロードして embed にする)
+    // silent: 自動投稿など、成功してもプレイヤーに知らせないもの
+    public record PendingPost(String id, UUID playerId, String repo, List<JSONObject> records, List<String> rkeys,
+                              List<Attachment> images, boolean silent, int attempts, long notBefore) {
+
+        PendingPost retryAt(long time) {
+            return new PendingPost(id, playerId, repo, records, rkeys, images, silent, attempts + 1, time);
+        }
+
+        PendingPost notBefore(long time) {
+            return new PendingPost(id, playerId, repo, records, rkeys, images, silent, attempts, time);
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("player", playerId.toString());
+            json.put("repo", repo);
+            if (records.size() == 1) {
+                json.put("record", records.get(0));
+            } else {
+                json.put("records", new JSONArray(records));
+            }
+            json.put("rkeys", new JSONArray(rkeys));
+            if (!images.isEmpty()) {
+                JSONArray array = new JSONArray();
+                images.forEach(image -> array.put(image.toJson()));
+                json.put("images", array);
+            }
+            json.put("silent", silent);
+            json.put("attempts", attempts);
+            json.put("notBefore", notBefore);
+            return json;
+        }
+
+        static PendingPost fromJson(JSONObject json) {
+            List<JSONObject> records = new ArrayList<>();
+            JSONArray array = json.optJSONArray("records");
+            if (array != null) {
+                for (int i = 0; i < array.length(); i++) {
+                    records.add(array.getJSONObject(i));
+                }
+            } else {
+                records.add(json.getJSONObject("record"));
+            }
+            // 古い outbox.json にはキーが無いので、ここで決める
+            List<String> rkeys = new ArrayList<>();
+            JSONArray keys = json.optJSONArray("rkeys");
+            for (int i = 0; i < records.size(); i++) {
+                rkeys.add(keys != null && i < keys.length() ? keys.getString(i) : nextTid());
+            }
+            List<Attachment> images = new ArrayList<>();
+            JSONArray imageArray = json.optJSONArray("images");
+            if (imageArray != null) {
+                for (int i = 0; i < imageArray.length(); i++) {
+                    images.add(Attachment.fromJson(imageArray.getJSONObject(i)));
+                }
+            }
+            return new PendingPost(json.getString("id"), UUID.fromString(json.getString("player")),
+                    json.getString("repo"), records, rkeys, images, json.optBoolean("silent"), json.optInt("attempts"),
+                    json.optLong("notBefore"));
+        }
+    }
+
+    // 添付画像 (file は画像用のフォルダの中のファイル名)
+    // blobは送信の直前にアップロードする (先に上げておくと、キューで待つ間にPDSに参照の無いblobとして消される)
+    public record Attachment(String file, String mimeType, int width, int height, String alt) {
+        JSONObject toJson() {
+            return new JSONObject().put("file", file).put("mimeType", mimeType)
+                    .put("width", width).put("height", height).put("alt", alt);
+        }
+
+        static Attachment fromJson(JSONObject json) {
+            return new Attachment(json.getString("file"), json.getString("mimeType"),
+                    json.getInt("width"), json.getInt("height"), json.optString("alt", ""));
+        }
+    }
+
+    // 結果をプレイヤーに知らせる (メッセージと引数)
+    @FunctionalInterface
+    public interface Notifier {
+        void notify(UUID playerId, Message message, Object... args);
+    }
+
+    // アカウント (repo) ごとの残り回数
+    private record RateBudget(int remaining, long resetAt) {}
+
+    private static final String TID_CHARS = "234567abcdefghijklmnopqrstuvwxyz";
+    private static final AtomicLong lastTidMicros = new AtomicLong();
+    private static final int TID_CLOCK_ID = ThreadLocalRandom.current().nextInt(1024);
+
+    private final XrpcClient xrpc;
+    private final SessionManager sessionManager;
+    private final Logger logger;
+    // 送信待ちの投稿の添付画像を置いておくフォルダ
+    private final Path imageDirectory;
+    private final Notifier notifier;
+    // キューが変わった時に呼ばれる (保存の予約用)
+    private final Runnable onDirty;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Metrics metrics;
+
+    private final List<PendingPost> pending = new ArrayList<>();
+    // 送信中の投稿 (保存時にはこれも含める)
+    private PendingPost sending;
+    private final Map<String, RateBudget> budgets = new HashMap<>();
+    private final ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1,
+            r -> Thread.ofPlatform().daemon().name("bluesky-post-queue").unstarted(r));
+    private ScheduledFuture<?> wakeup;
+
+    public PostQueue(XrpcClient xrpc, SessionManager sessionManager, Logger logger, Path imageDirectory, Notifier notifier,
+                     Runnable onDirty, int maxAttempts, long baseBackoffMillis, long maxBackoffMillis, Metrics metrics) {
+        this.xrpc = xrpc;
+        this.sessionManager = sessionManager;
+        this.logger = logger;
+        this.imageDirectory = imageDirectory;
+        this.notifier = notifier;
+        this.onDirty = onDirty;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.metrics = metrics;
+        // 停止後はバックオフ待ちの予約を実行しない (送信待ちのまま outbox.json に残す)
+        worker.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    // 投稿をキューに追加する。送信結果は後でNotifierから知らせる
+    public void enqueue(UUID playerId, String repo, JSONObject record) {
+        enqueue(playerId, repo, record, List.of());
+    }
+
+    // 画像付きの投稿を追加する (画像は stage で画像用のフォルダに移したもの)
+    public void enqueue(UUID playerId, String repo, JSONObject record, List<Attachment> images) {
+        add(newPost(playerId, repo, List.of(record), List.copyOf(images), false));
+    }
+
+    // 添付する画像を画像用のフォルダに置く (一時ファイルは移動し、それ以外はコピーする)
+    public Attachment stage(Path file, boolean temporary, String mimeType, int width, int height, String alt)
+            throws IOException {
+        Files.createDirectories(imageDirectory);
+        String name = file.getFileName().toString();
+        Path target = Files.createTempFile(imageDirectory, "image", name.substring(Math.max(0, name.lastIndexOf('.'))));
+        if (temporary) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new Attachment(target.getFileName().toString(), mimeType, width, height, alt);
+    }
+
+    // 送らなかった画像を消す
+    public void discard(List<Attachment> images) {
+        for (Attachment image : images) {
+            try {
+                Files.deleteIfExists(imageDirectory.resolve(image.file()));
+            } catch (IOException e) {
+                logger.fine("添付画像を消せませんでした: " + image.file());
+            }
+        }
+    }
+
+    // 同じアカウントの複数の投稿を1回の applyWrites で書き込むように追加する (成功しても知らせない)
+    public void enqueueSilently(UUID playerId, String repo, List<JSONObject> records) {
+        if (!records.isEmpty()) {
+            add(newPost(playerId, repo, List.copyOf(records), List.of(), true));
+        }
+    }
+
+    private static PendingPost newPost(UUID playerId, String repo, List<JSONObject> records, List<Attachment> images,
+                                       boolean silent) {
+        List<String> rkeys = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            rkeys.add(nextTid());
+        }
+        return new PendingPost(UUID.randomUUID().toString(), playerId, repo, records, List.copyOf(rkeys), images, silent,
+                0, 0L);
+    }
+
+    // レコードのキーに使うTID (マイクロ秒の時刻とクロックIDを base32-sortable の13文字にしたもの、単調増加)
+    static String nextTid() {
+        long micros = lastTidMicros.updateAndGet(last -> Math.max(last + 1,
+                System.currentTimeMillis() * 1000 + (System.nanoTime() / 1000) % 1000));
+        long value = (micros << 10) | TID_CLOCK_ID;
+        char[] chars = new char[13];
+        for (int i = 12; i >= 0; i--) {
+            chars[i] = TID_CHARS.charAt((int) (value & 31));
+            value >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    private void add(PendingPost post) {
+        synchronized (this) {
+            pending.add(post);
+        }
+        onDirty.run();
+        schedule(0);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    // 保存されていた送信待ちの投稿を読み込んで送信を再開する
+    public void load(Path file) {
+        if (!Files.exists(file)) {
+            removeUnusedImages();
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            JSONArray posts = new JSONArray(new JSONTokener(in));
+            synchronized (this) {
+                for (int i = 0; i < posts.length(); i++) {
+                    pending.add(PendingPost.fromJson(posts.getJSONObject(i)));
+                }
+            }
+            if (!posts.isEmpty()) {
+                logger.info("送信待ちの投稿を" + posts.length() + "件読み込みました");
+                schedule(0);
+            }
+        } catch (Exception e) {
+            logger.warning("Error loading post queue: " + e.getMessage());
+        }
+        removeUnusedImages();
+    }
+
+    // どの送信待ちの投稿からも参照されていない画像 (送信後に消す前に止まった場合など) を消す
+    private void removeUnusedImages() {
+        if (!Files.isDirectory(imageDirectory)) {
+            return;
+        }
+        Set<String> used = new HashSet<>();
+        synchronized (this) {
+            pending.forEach(post -> post.images().forEach(image -> used.add(image.file())));
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(imageDirectory)) {
+            for (Path file : files) {
+                if (!used.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.fine("添付画像のフォルダを片付けられませんでした: " + e.getMessage());
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        JSONArray posts = new JSONArray();
+        synchronized (this) {
+            if (sending != null) {
+                posts.put(sending.toJson());
+            }
+            pending.forEach(post -> posts.put(post.toJson()));
+        }
+        WriteBehindFlusher.writeAtomically(file, posts.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 送信中の1件が終わるまで待ってから止める (途中で切ると、届いたかどうか分からないまま次回に再送することになる)
+    // 待ちきれなかった場合も、同じキーで再送するので二重には投稿されない
+    public void shutdown(long waitMillis) {
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(waitMillis, TimeUnit.MILLISECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        // 停止後に追加された投稿 (自動投稿の最後の窓など) は送らずに outbox.json に残す
+        if (worker.isShutdown()) {
+            return;
+        }
+        if (wakeup != null && !wakeup.isDone()) {
+            if (wakeup.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+                return;
+            }
+            wakeup.cancel(false);
+        }
+        wakeup = worker.schedule(this::drain, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    // 送信できる投稿を順に送る。送れるものが無くなったら次に送れる時刻に起きる
+    private void drain() {
+        synchronized (this) {
+            // 実行中のこのタスクは次の予約の邪魔にならないよう外しておく
+            wakeup = null;
+        }
+        while (!worker.isShutdown()) {
+            PendingPost next = null;
+            long nextWake = Long.MAX_VALUE;
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                for (Iterator<PendingPost> it = pending.iterator(); it.hasNext(); ) {
+                    PendingPost post = it.next();
+                    long readyAt = Math.max(post.notBefore(), budgetResetFor(post.repo(), now));
+                    if (readyAt <= now) {
+                        next = post;
+                        sending = post;
+                        it.remove();
+                        break;
+                    }
+                    nextWake = Math.min(nextWake, readyAt);
+                }
+            }
+            if (next == null) {
+                if (nextWake != Long.MAX_VALUE) {
+                    schedule(nextWake - System.currentTimeMillis());
+                }
+                return;
+            }
+            try {
+                send(next);
+            } finally {
+                synchronized (this) {
+                    sending = null;
+                }
+            }
+        }
+    }
+
+    private void send(PendingPost post) {
+        // オフラインのプレイヤーの投稿もあるので、送る間だけセッションを読み込む
+        sessionManager.borrow(post.playerId());
+        try {
+            attempt(post);
+        } finally {
+            sessionManager.release(post.playerId());
+        }
+    }
+
+    private void attempt(PendingPost post) {
+        if (!sessionManager.has(post.playerId())) {
+            // ログアウトされた場合は送らない (自動投稿は知らせない)
+            discard(post.images());
+            onDirty.run();
+            if (!post.silent()) {
+                notifier.notify(post.playerId(), Message.POST_DROPPED);
+            }
+            return;
+        }
+
+        String nsid = post.records().size() == 1 ? "com.atproto.repo.createRecord" : "com.atproto.repo.applyWrites";
+        JSONObject body = new JSONObject();
+        body.put("repo", post.repo());
+        if (post.records().size() == 1) {
+            body.put("collection", "app.bsky.feed.post");
+            body.put("rkey", post.rkeys().get(0));
+            // 保存してあるレコードは変えずに、embed を付けたコピーを送る
+            body.put("record", post.images().isEmpty() ? post.records().get(0) : new JSONObject(post.records().get(0).toString()));
+        } else {
+            JSONArray writes = new JSONArray();
+            for (int i = 0; i < post.records().size(); i++) {
+                writes.put(new JSONObject()
+                        .put("$type", "com.atproto.repo.applyWrites#create")
+                        .put("collection", "app.bsky.feed.post")
+                        .put("rkey", post.rkeys().get(i))
+                        .put("value", post.records().get(i)));
+            }
+            body.put("writes", writes);
+        }
+
+        try {
+            XrpcResponse response = uploadImages(post, body);
+            if (response == null) {
+                response = sessionManager.call(post.playerId(), jwt -> xrpc.post(nsid, jwt, body));
+            }
+            updateBudget(post.repo(), response.headers());
+
+            // 既にあると言われたら、前回の (タイムアウトなどで結果が分からなかった) 送信が届いている
+            if (response.isOk() || alreadyExists(response)) {
+                metrics.add("posts_sent", post.records().size());
+                discard(post.images());
+                onDirty.run();
+                if (!post.silent()) {
+                    notifier.notify(post.playerId(), Message.POST_SUCCESS);
+                }
+            } else if (response.status() == 429) {
+                // 制限の解除時刻まで待つ (ヘッダーが無ければバックオフ)
+                long resetAt = resetTime(response.headers());
+                retry(post, resetAt > 0 ? resetAt : backoffTime(post.attempts()), "HTTP 429");
+            } else if (response.status() >= 500) {
+                retry(post, backoffTime(post.attempts()), "HTTP " + response.status());
+            } else {
+                // 4xxは再試行しても成功しない
+                discard(post.images());
+                onDirty.run();
+                String error = response.error();
+                notifier.notify(post.playerId(), Message.POST_FAILED, error != null ? error : "HTTP " + response.status());
+            }
+        } catch (ServiceUnavailableException e) {
+            // 送信していないので試行回数には数えず、少し待ってから送り直す
+            synchronized (this) {
+                pending.add(post.notBefore(backoffTime(post.attempts())));
+            }
+            onDirty.run();
+        } catch (IOException e) {
+            retry(post, backoffTime(post.attempts()), e.getMessage());
+        }
+    }
+
+    private void retry(PendingPost post, long at, String reason) {
+        if (post.attempts() + 1 >= maxAttempts) {
+            metrics.increment("posts_failed");
+            discard(post.images());
+            onDirty.run();
+            logger.warning("投稿の送信をあきらめました (" + post.playerId() + "): " + reason);
+            notifier.notify(post.playerId(), Message.POST_FAILED, reason);
+            return;
+        }
+        metrics.increment("post_retries");
+        synchronized (this) {
+            pending.add(post.retryAt(at));
+        }
+        onDirty.run();
+    }
+
+    // 添付画像をアップロードして body のレコードに embed を付ける
+    // 失敗したらそのレスポンスを返す (投稿と同じく、429・5xxは再試行、それ以外の4xxは失敗にする)
+    private XrpcResponse uploadImages(PendingPost post, JSONObject body) throws IOException {
+        if (post.images().isEmpty()) {
+            return null;
+        }
+        JSONArray images = new JSONArray();
+        for (Attachment image : post.images()) {
+            Path file = imageDirectory.resolve(image.file());
+            XrpcResponse response = sessionManager.call(post.playerId(), jwt -> xrpc.upload(
+                    "com.atproto.repo.uploadBlob", jwt, file, image.mimeType()));
+            if (!response.isOk()) {
+                return response;
+            }
+            metrics.increment("images_uploaded");
+            images.put(new JSONObject()
+                    .put("alt", image.alt())
+                    .put("image", response.json().getJSONObject("blob"))
+                    .put("aspectRatio", new JSONObject().put("width", image.width()).put("height", image.height())));
+        }
+        body.getJSONObject("record").put("embed", new JSONObject()
+                .put("$type", "app.bsky.embed.images").put("images", images));
+        return null;
+    }
+
+    private static boolean alreadyExists(XrpcResponse response) {
+        if (response.status() != 400 && response.status() != 409) {
+            return false;
+        }
+        String message = response.message();
+        return message != null && message.toLowerCase(Locale.ROOT).contains("already exists");
+    }
+
+    // フルジッター付きの指数バックオフ
+    private long backoffTime(int attempts) {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempts, 20));
+        return System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(baseBackoffMillis, Math.max(baseBackoffMillis + 1, cap + 1));
+    }
+
+    // 残り回数が0のアカウントは解除時刻まで待つ
+    private long budgetResetFor(String repo, long now) {
+        RateBudget budget = budgets.get(repo);
+        if (budget == null || budget.remaining() > 0 || budget.resetAt() <= now) {
+            return 0L;
+        }
+        return budget.resetAt();
+    }
+
+    private void updateBudget(String repo, HttpHeaders headers) {
+        long resetAt = resetTime(headers);
+        headers.firstValue("ratelimit-remaining").ifPresent(value -> {
+            try {
+                int remaining = Integer.parseInt(value.trim());
+                synchronized (this) {
+                    budgets.put(repo, new RateBudget(remaining, resetAt));
+                }
+            } catch (NumberFormatException ignored) {
+                // 読めないヘッダーは無視する
+            }
+        });
+    }
+
+    // ratelimit-reset (UNIX秒) をミリ秒で返す (無ければ0)
+    private static long resetTime(HttpHeaders headers) {
+        return headers.firstValue("ratelimit-reset").map(value -> {
+            try {
+                return Long.parseLong(value.trim()) * 1000L;
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }).orElse(0L);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.blueskyplugin;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import java.util.List;
+
+// タイムライン・フィードの1ページを1つのComponentにまとめる (チャット1回で送れる)
+// 非同期スレッドで呼び、メインスレッドでは送信するだけにする
+public class PostRenderer {
+    private final int maxTextLength;
+
+    public PostRenderer(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+    }
+
+    // header・投稿・footer (nullなら省略) を改行でつなぐ
+    public Component render(String header, List<Post> posts, String footer, String openHint) {
+        TextComponent.Builder page = Component.text();
+        page.append(Component.text(header));
+        for (Post post : posts) {
+            page.append(Component.newline()).append(renderPost(post, openHint));
+        }
+        if (footer != null) {
+            page.append(Component.newline()).append(Component.text(footer, NamedTextColor.GRAY));
+        }
+        return page.build();
+    }
+
+    // 1件の投稿の前にラベルを付ける (ライブ表示用)
+    public Component renderLabeled(String label, Post post, String openHint) {
+        return Component.text().append(Component.text(label + " ", NamedTextColor.GREEN))
+                .append(renderPost(post, openHint)).build();
+    }
+
+    // 名前 (@handle): 本文
+    // 名前にカーソルを合わせるとフルハンドルと投稿日時、本文をクリックするとbsky.appで投稿を開く
+    Component renderPost(Post post, String openHint) {
+        Component author = Component.text(post.authorName(), NamedTextColor.GOLD)
+                .append(Component.text(" (@" + shortHandle(post.handle()) + ")", NamedTextColor.AQUA))
+                .hoverEvent(HoverEvent.showText(Component.text("@" + post.handle()
+                        + (post.createdAt() != null ? "\n" + post.createdAt() : ""))));
+
+        String text = post.text();
+        String shown = truncate(text.replace('\n', ' '), maxTextLength);
+        Component body = Component.text(shown, NamedTextColor.WHITE);
+        String url = postUrl(post);
+        if (url != null) {
+            // 省略した場合はカーソルを合わせると全文を表示する
+            Component hover = shown.length() < text.length()
+                    ? Component.text(text).append(Component.newline()).append(Component.text(openHint, NamedTextColor.GRAY))
+                    : Component.text(openHint, NamedTextColor.GRAY);
+            body = body.clickEvent(ClickEvent.openUrl(url)).hoverEvent(HoverEvent.showText(hover));
+        }
+        return Component.text().append(author).append(Component.text(": ")).append(body).build();
+    }
+
+    // at://did/app.bsky.feed.post/rkey → https://bsky.app/profile/handle/post/rkey
+    static String postUrl(Post post) {
+        String uri = post.uri();
+        if (uri == null || !uri.startsWith("at://") || !uri.contains("/app.bsky.feed.post/")) {
+            return null;
+        }
+        String rkey = uri.substring(uri.lastIndexOf('/') + 1);
+        return "https://bsky.app/profile/" + post.handle() + "/post/" + rkey;
+    }
+
+    // .bsky.social は省略して表示する (ホバーではフルハンドル)
+    static String shortHandle(String handle) {
+        return handle.endsWith(".bsky.social") ? handle.substring(0, handle.length() - ".bsky.social".length()) : handle;
+    }
+
+    // サロゲートペアの途中で切らないよう、コードポイント単位で切り詰める
+    static String truncate(String text, int maxLength) {
+        if (maxLength <= 0 || text.codePointCount(0, text.length()) <= maxLength) {
+            return text;
+        }
+        return text.substring(0, text.offsetByCodePoints(0, maxLength - 1)) + "…";
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// 同じリクエストをまとめる (シングルフライト) + 短いTTLの共有キャッシュ
+// 同時に来た同一リクエストは1回の呼び出しの結果を共有し、直後の同一リクエストはキャッシュから返す
+// 共有してよいのは閲覧者に依存しない値だけ (viewerブロックなどは含めないこと)
+public class RequestCoalescer<T> {
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private record Cached<T>(T value, long expiresAt) {}
+
+    private final long ttlMillis;
+    // キャッシュのヒット率の記録用
+    private final Metrics metrics;
+    private final String name;
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Cached<T>> cache;
+
+    public RequestCoalescer(long ttlMillis, int maxEntries, Metrics metrics, String name) {
+        this.ttlMillis = ttlMillis;
+        this.metrics = metrics;
+        this.name = name;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached<T>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // エンドポイントとパラメータ (name, value, ...) からキーを作る。パラメータの順番には依存しない
+    public static String key(String nsid, String... params) {
+        String[] pairs = new String[params.length / 2];
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            pairs[i / 2] = params[i] + "=" + (params[i + 1] == null ? "" : params[i + 1]);
+        }
+        Arrays.sort(pairs);
+        return nsid + "?" + String.join("&", pairs);
+    }
+
+    public T get(String key, Loader<T> loader) throws IOException {
+        return get(key, loader, e -> false);
+    }
+
+    // callerSpecific: 実行した呼び出し元だけの理由 (セッション切れなど) による失敗か
+    // 待っていた側はそのような失敗を受け取らず、自分の loader で1回だけ読み直す
+    public T get(String key, Loader<T> loader, Predicate<IOException> callerSpecific) throws IOException {
+        synchronized (cache) {
+            Cached<T> cached = cache.get(key);
+            if (cached != null) {
+                if (cached.expiresAt() > System.currentTimeMillis()) {
+                    metrics.cacheHit(name);
+                    return cached.value();
+                }
+                cache.remove(key);
+            }
+        }
+
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            // 他のプレイヤーの同じリクエストが実行中ならその結果を待つ
+            metrics.cacheHit(name);
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    if (callerSpecific.test(io)) {
+                        return get(key, loader);
+                    }
+                    throw io;
+                }
+                throw e;
+            }
+        }
+        metrics.cacheMiss(name);
+        try {
+            T value = loader.load();
+            synchronized (cache) {
+                cache.put(key, new Cached<>(value, System.currentTimeMillis() + ttlMillis));
+            }
+            mine.complete(value);
+            return value;
+        } catch (IOException | RuntimeException e) {
+            // 先に外しておかないと、読み直す待ち手がまたこの失敗を待ってしまう
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // キャッシュにあれば返す (通信しない、期限切れならnull)
+    public T getIfPresent(String key) {
+        synchronized (cache) {
+            Cached<T> cached = cache.get(key);
+            return cached != null && cached.expiresAt() > System.currentTimeMillis() ? cached.value() : null;
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+
+// Blueskyに接続できない状態 (サーキットブレーカーが開いている、または同時実行数の上限) で呼び出しを断った
+public class ServiceUnavailableException extends IOException {
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// ログイン中のセッション (アクセストークン・リフレッシュトークンとその有効期限)
+public record Session(String accessJwt, String refreshJwt, String did, long accessExpiresAt) {
+
+    public static Session of(String accessJwt, String refreshJwt, String did) {
+        return new Session(accessJwt, refreshJwt, did, expiryOf(accessJwt));
+    }
+
+    public boolean canRefresh() {
+        return refreshJwt != null;
+    }
+
+    // 指定したミリ秒以内に期限が切れるか
+    public boolean expiresWithin(long millis) {
+        return accessExpiresAt - System.currentTimeMillis() < millis;
+    }
+
+    // JWTのペイロードから exp (秒) を取り出してミリ秒で返す。読めなければ0 (期限切れ扱い)
+    static long expiryOf(String jwt) {
+        try {
+            String[] parts = jwt.split("\\.");
+            byte[] payload = Base64.getUrlDecoder().decode(parts[1]);
+            return new JSONObject(new String(payload, StandardCharsets.UTF_8)).getLong("exp") * 1000L;
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+}
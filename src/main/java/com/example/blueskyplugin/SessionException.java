@@ -0,0 +1,10 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+
+// プレイヤーのセッションが無い、または更新できない (再ログインが必要) ので呼び出せなかった
+public class SessionException extends IOException {
+    public SessionException(String message) {
+        super(message);
+    }
+}
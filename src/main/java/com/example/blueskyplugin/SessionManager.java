@@ -0,0 +1,179 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+// セッションの保持と、refreshJwtによる自動更新を行う
+public class SessionManager {
+    // アクセストークンを使うXRPC呼び出し
+    @FunctionalInterface
+    public interface XrpcCall<T> {
+        T call(String accessJwt) throws IOException;
+    }
+
+    private final XrpcClient xrpc;
+    // セッションはプレイヤーごとのデータとして保存する
+    private final PlayerStore store;
+    private final Logger logger;
+    private final long refreshMarginMillis;
+    private final Metrics metrics;
+    // 同じプレイヤーの同時更新を1回の呼び出しにまとめる
+    private final Map<UUID, CompletableFuture<Session>> refreshing = new ConcurrentHashMap<>();
+
+    public SessionManager(XrpcClient xrpc, PlayerStore store, Logger logger, long refreshMarginMillis, Metrics metrics) {
+        this.xrpc = xrpc;
+        this.store = store;
+        this.logger = logger;
+        this.refreshMarginMillis = refreshMarginMillis;
+        this.metrics = metrics;
+    }
+
+    public Session get(UUID playerId) {
+        return store.get(playerId).session();
+    }
+
+    // オフラインのプレイヤーのセッションを使う間だけ読み込む (終わったら release。メモリには残さない)
+    public void borrow(UUID playerId) {
+        store.borrow(playerId);
+    }
+
+    public void release(UUID playerId) {
+        store.release(playerId);
+    }
+
+    public boolean has(UUID playerId) {
+        return get(playerId) != null;
+    }
+
+    public void put(UUID playerId, Session session) {
+        store.update(playerId, data -> data.withSession(session));
+    }
+
+    public void remove(UUID playerId) {
+        store.update(playerId, data -> data.withSession(null));
+    }
+
+    // アクセストークンを使って呼び出す。期限切れなら更新してから、ExpiredTokenが返れば更新して1回だけ再試行する
+    // 結果がXrpcResponseの場合はステータスで、それ以外はXrpcExceptionで期限切れを判定する
+    public <T> T call(UUID playerId, XrpcCall<T> call) throws IOException {
+        Session session = get(playerId);
+        if (session == null) {
+            throw new SessionException("Not logged in");
+        }
+        if (session.canRefresh() && session.expiresWithin(0)) {
+            session = refresh(playerId);
+        }
+        T result;
+        try {
+            result = call.call(session.accessJwt());
+        } catch (XrpcException e) {
+            if (!isExpired(e.getResponse()) || !session.canRefresh()) {
+                throw e;
+            }
+            metrics.increment("session_retries");
+            return call.call(refresh(playerId).accessJwt());
+        }
+        if (result instanceof XrpcResponse response && isExpired(response) && session.canRefresh()) {
+            metrics.increment("session_retries");
+            return call.call(refresh(playerId).accessJwt());
+        }
+        return result;
+    }
+
+    // com.atproto.server.refreshSession でトークンを更新する (同時に呼ばれた場合は1回にまとめる)
+    public Session refresh(UUID playerId) throws IOException {
+        CompletableFuture<Session> mine = new CompletableFuture<>();
+        CompletableFuture<Session> existing = refreshing.putIfAbsent(playerId, mine);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            metrics.increment("session_refreshes");
+            Session refreshed = doRefresh(playerId);
+            mine.complete(refreshed);
+            return refreshed;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            refreshing.remove(playerId, mine);
+        }
+    }
+
+    // 期限が近いセッションを更新する (バックグラウンドのスケジューラから呼ばれる)
+    public void refreshExpiring(Predicate<UUID> shouldRefresh) {
+        for (Map.Entry<UUID, PlayerData> entry : store.entries()) {
+            Session session = entry.getValue().session();
+            if (session == null || !session.canRefresh() || !session.expiresWithin(refreshMarginMillis)
+                    || !shouldRefresh.test(entry.getKey())) {
+                continue;
+            }
+            try {
+                refresh(entry.getKey());
+            } catch (IOException e) {
+                logger.warning("セッションの更新に失敗しました (" + entry.getKey() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private Session doRefresh(UUID playerId) throws IOException {
+        Session current = get(playerId);
+        if (current == null || !current.canRefresh()) {
+            throw new SessionException("Session cannot be refreshed");
+        }
+        XrpcResponse response = xrpc.post("com.atproto.server.refreshSession", current.refreshJwt());
+        if (!response.isOk()) {
+            String error = response.error();
+            if ("ExpiredToken".equals(error) || "InvalidToken".equals(error) || response.status() == 401) {
+                // 保存先を共有している他のサーバーが先に更新していれば (リフレッシュトークンは使い捨て)、そちらを使う
+                Session latest = store.revalidate(playerId).session();
+                if (latest != null && !Objects.equals(latest.refreshJwt(), current.refreshJwt())) {
+                    return latest;
+                }
+                // リフレッシュトークン自体が無効ならセッションを破棄して再ログインしてもらう
+                store.update(playerId, data -> data.session() == current ? data.withSession(null) : data);
+                throw new SessionException("HTTP " + response.status() + ": " + response.bodyText());
+            }
+            throw new IOException("HTTP " + response.status() + ": " + response.bodyText());
+        }
+        JSONObject json = response.json();
+        Session refreshed = Session.of(json.getString("accessJwt"), json.getString("refreshJwt"),
+                json.optString("did", current.did()));
+        // リフレッシュトークンは使い捨てなので必ず保存する
+        put(playerId, refreshed);
+        return refreshed;
+    }
+
+    // 呼び出したプレイヤーのセッションが原因の失敗か (ログインしていない、トークンが期限切れ・無効)
+    // 他のプレイヤーが同じ呼び出しをすれば成功するかもしれない
+    public static boolean isSessionError(IOException e) {
+        if (e instanceof SessionException) {
+            return true;
+        }
+        return e instanceof XrpcException xrpcError && (isExpired(xrpcError.getResponse())
+                || "InvalidToken".equals(xrpcError.getError()) || "AuthRequired".equals(xrpcError.getError()));
+    }
+
+    private static boolean isExpired(XrpcResponse response) {
+        return !response.isOk() && (response.status() == 401 || "ExpiredToken".equals(response.error()));
+    }
+
+    private static Session await(CompletableFuture<Session> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.util.UUID;
+
+// プレイヤーのデータ (セッションを含む) の保存先
+// 版 (version) による楽観的な排他制御で、複数のサーバーから同じ保存先を使っても上書きし合わないようにする
+public interface SessionStore extends AutoCloseable {
+    // write で版が一致しなかった (他のサーバーが先に書き込んだ)
+    long CONFLICT = -1;
+
+    // 保存されたデータとその版 (まだ保存されていなければ版は0)
+    record Versioned(PlayerData data, long version) {
+        static final Versioned NONE = new Versioned(PlayerData.EMPTY, 0);
+    }
+
+    Versioned read(UUID playerId) throws IOException;
+
+    // 版だけを調べる (メモリ上のデータが古くなっていないかの確認用)
+    long version(UUID playerId) throws IOException;
+
+    // 保存されている版が expectedVersion の場合だけ書き込み、新しい版を返す。違っていれば CONFLICT
+    long write(UUID playerId, PlayerData data, long expectedVersion) throws IOException;
+
+    // 他のサーバーと共有しているか (共有していなければ版の確認を省く)
+    boolean isShared();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,110 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+// 埋め込みのSQLiteに保存する (同じホストの複数のサーバーで1つのファイルを共有できる)
+// UUIDを主キーにした1つの表で、データ (PlayerDataのJSON) と版を持つ
+// 更新は「版が読んだ時のままなら書き、版を1つ進める」の1文で行うので、他のサーバーの書き込みを上書きしない
+// SQLiteのJDBCドライバーはPaperに同梱されているものを使う
+public class SqliteSessionStore implements SessionStore {
+    private final Connection connection;
+    private final PreparedStatement select;
+    private final PreparedStatement selectVersion;
+    private final PreparedStatement insert;
+    private final PreparedStatement update;
+
+    public SqliteSessionStore(Path file) throws IOException {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            connection = DriverManager.getConnection("jdbc:sqlite:" + file.toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                // 読み込みは他のサーバーの書き込みを待たない。書き込みが重なったら少し待つ
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA busy_timeout=5000");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS players ("
+                        + "uuid TEXT PRIMARY KEY, data TEXT NOT NULL, version INTEGER NOT NULL) WITHOUT ROWID");
+            }
+            select = connection.prepareStatement("SELECT data, version FROM players WHERE uuid = ?");
+            selectVersion = connection.prepareStatement("SELECT version FROM players WHERE uuid = ?");
+            insert = connection.prepareStatement(
+                    "INSERT INTO players (uuid, data, version) VALUES (?, ?, 1) ON CONFLICT (uuid) DO NOTHING");
+            update = connection.prepareStatement(
+                    "UPDATE players SET data = ?, version = version + 1 WHERE uuid = ? AND version = ?");
+        } catch (SQLException e) {
+            throw new IOException("SQLiteを開けませんでした: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized Versioned read(UUID playerId) throws IOException {
+        try {
+            select.setString(1, playerId.toString());
+            try (ResultSet rows = select.executeQuery()) {
+                if (!rows.next()) {
+                    return Versioned.NONE;
+                }
+                return new Versioned(PlayerData.fromJson(new JSONObject(rows.getString(1))), rows.getLong(2));
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized long version(UUID playerId) throws IOException {
+        try {
+            selectVersion.setString(1, playerId.toString());
+            try (ResultSet rows = selectVersion.executeQuery()) {
+                return rows.next() ? rows.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // 行は消さずに空のデータで残す (版を戻すと、古い版を持つ他のサーバーの書き込みが通ってしまう)
+    @Override
+    public synchronized long write(UUID playerId, PlayerData data, long expectedVersion) throws IOException {
+        try {
+            int changed;
+            if (expectedVersion == 0) {
+                insert.setString(1, playerId.toString());
+                insert.setString(2, data.toJson().toString());
+                changed = insert.executeUpdate();
+            } else {
+                update.setString(1, data.toJson().toString());
+                update.setString(2, playerId.toString());
+                update.setLong(3, expectedVersion);
+                changed = update.executeUpdate();
+            }
+            return changed == 1 ? expectedVersion + 1 : CONFLICT;
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.blueskyplugin;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// プレイヤーごとに取得済みのタイムラインページを保持するキャッシュ
+// ページは取得に使ったカーソルで引く (1ページ目は空文字)
+public class TimelinePageCache {
+    public record Page(List<Post> posts, String nextCursor, long fetchedAt) {}
+
+    private final long ttlMillis;
+    private final int maxPagesPerPlayer;
+    private final Map<UUID, PlayerPages> players = new ConcurrentHashMap<>();
+
+    public TimelinePageCache(long ttlMillis, int maxPagesPerPlayer) {
+        this.ttlMillis = ttlMillis;
+        this.maxPagesPerPlayer = maxPagesPerPlayer;
+    }
+
+    // 有効期限内のページを返す (無ければnull)
+    public Page get(UUID playerId, String cursor) {
+        PlayerPages pages = players.get(playerId);
+        if (pages == null) {
+            return null;
+        }
+        synchronized (pages) {
+            Page page = pages.byCursor.get(key(cursor));
+            if (page == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - page.fetchedAt() > ttlMillis) {
+                pages.byCursor.remove(key(cursor));
+                return null;
+            }
+            return page;
+        }
+    }
+
+    public void put(UUID playerId, String cursor, Page page) {
+        PlayerPages pages = players.computeIfAbsent(playerId, id -> new PlayerPages(maxPagesPerPlayer));
+        synchronized (pages) {
+            pages.byCursor.put(key(cursor), page);
+        }
+    }
+
+    // 最後に表示したページ番号 (/bsky tl more 用)
+    public int lastPage(UUID playerId) {
+        PlayerPages pages = players.get(playerId);
+        return pages == null ? 0 : pages.lastPage;
+    }
+
+    public void setLastPage(UUID playerId, int page) {
+        players.computeIfAbsent(playerId, id -> new PlayerPages(maxPagesPerPlayer)).lastPage = page;
+    }
+
+    public void invalidate(UUID playerId) {
+        players.remove(playerId);
+    }
+
+    private static String key(String cursor) {
+        return cursor == null ? "" : cursor;
+    }
+
+    private static final class PlayerPages {
+        // アクセス順で上限を超えたら古いページから捨てる
+        private final LinkedHashMap<String, Page> byCursor;
+        private volatile int lastPage;
+
+        private PlayerPages(int maxPages) {
+            this.byCursor = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+                    return size() > maxPages;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+// 変更があった印だけを付けておき、バックグラウンドでまとめて書き込む
+// 何回変更されても1回のフラッシュで書くのは1度だけ
+public class WriteBehindFlusher {
+    @FunctionalInterface
+    public interface Writer {
+        void write() throws IOException;
+    }
+
+    private final Writer writer;
+    private final Logger logger;
+    private final Metrics metrics;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Object writeLock = new Object();
+
+    public WriteBehindFlusher(Writer writer, Logger logger, Metrics metrics) {
+        this.writer = writer;
+        this.logger = logger;
+        this.metrics = metrics;
+    }
+
+    public void markDirty() {
+        dirty.set(true);
+    }
+
+    public boolean isDirty() {
+        return dirty.get();
+    }
+
+    // 変更があれば書き込む (失敗したら次回また書く)
+    public void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        synchronized (writeLock) {
+            long start = System.nanoTime();
+            try {
+                writer.write();
+                metrics.recordFlush(System.nanoTime() - start);
+            } catch (Exception e) {
+                metrics.increment("flush_errors");
+                dirty.set(true);
+                logger.warning("Error saving data: " + e.getMessage());
+            }
+        }
+    }
+
+    // 一時ファイルに書いてからリネームする (書き込み途中でクラッシュしても元のファイルは壊れない)
+    public static void writeAtomically(Path target, byte[] data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 全ハンドラで共有するXRPCクライアント
+// HttpClientは1つだけ作り、HTTP/2の多重化とコネクションプールを使い回す
+// 読み込み (GET) と書き込み (POST) で同時実行数を分け、サーキットブレーカーで障害時はすぐに失敗させる
+public class XrpcClient implements AutoCloseable {
+    // レスポンスボディのストリームを読んで値にする
+    @FunctionalInterface
+    public interface BodyDecoder<T> {
+        T decode(InputStream body) throws IOException;
+    }
+
+    // レスポンスを値にする (ボディのストリームは呼び出し側で閉じる)
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(HttpResponse<InputStream> response) throws IOException;
+    }
+
+    private final HttpClient http;
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    // getTimeline / getFeed などの読み込み用と、createRecord / createSession などの書き込み用
+    private final Semaphore readBulkhead;
+    private final Semaphore writeBulkhead;
+    private final long bulkheadWaitMillis;
+    private final CircuitBreaker breaker;
+    private final Metrics metrics;
+    // HttpRequest.timeout はヘッダーが届くまでしか見ないので、ボディの読み込みの期限はここで切る
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon().name("bluesky-xrpc-deadline").unstarted(r));
+
+    public XrpcClient(String baseUrl, Duration connectTimeout, Duration requestTimeout,
+                      int maxConcurrentReads, int maxConcurrentWrites, long bulkheadWaitMillis, CircuitBreaker breaker,
+                      Metrics metrics) {
+        // 末尾のスラッシュは取り除いておく
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.requestTimeout = requestTimeout;
+        this.readBulkhead = new Semaphore(maxConcurrentReads);
+        this.writeBulkhead = new Semaphore(maxConcurrentWrites);
+        this.bulkheadWaitMillis = bulkheadWaitMillis;
+        this.breaker = breaker;
+        this.metrics = metrics;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    // プラグインの無効化時に、期限のタイマーとHttpClientを止める (/reload のたびにスレッドが残らないように)
+    // 実行中のリクエストは IOException で失敗する
+    @Override
+    public void close() {
+        http.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    // GETリクエスト (params は name, value, name, value ... の順で渡す。nullの値は無視)
+    public XrpcResponse get(String nsid, String accessJwt, String... params) throws IOException {
+        HttpRequest.Builder builder = newRequest(nsid, accessJwt, params).GET();
+        return send(nsid, builder.build(), readBulkhead);
+    }
+
+    // GETリクエストのボディをバッファせずにストリームのままdecoderに渡す (200以外はXrpcException)
+    public <T> T getStreaming(String nsid, String accessJwt, BodyDecoder<T> decoder, String... params) throws IOException {
+        HttpRequest request = newRequest(nsid, accessJwt, params).GET().build();
+        return execute(nsid, request, readBulkhead, response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new XrpcException(new XrpcResponse(response.statusCode(), body.readAllBytes(), response.headers()));
+                }
+                return decoder.decode(body);
+            }
+        });
+    }
+
+    // JSONボディ付きのPOSTリクエスト
+    public XrpcResponse post(String nsid, String accessJwt, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        HttpRequest.Builder builder = newRequest(nsid, accessJwt)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(bytes));
+        return send(nsid, builder.build(), writeBulkhead);
+    }
+
+    // ファイルをそのままボディにしたPOSTリクエスト (uploadBlob)
+    // ボディはファイルから少しずつ読んで送るので、大きなファイルでもヒープに全体を載せない
+    public XrpcResponse upload(String nsid, String accessJwt, Path file, String contentType) throws IOException {
+        HttpRequest.Builder builder = newRequest(nsid, accessJwt)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofFile(file));
+        return send(nsid, builder.build(), writeBulkhead);
+    }
+
+    // ボディなしのPOSTリクエスト (refreshSession など)
+    public XrpcResponse post(String nsid, String accessJwt) throws IOException {
+        HttpRequest.Builder builder = newRequest(nsid, accessJwt)
+                .POST(HttpRequest.BodyPublishers.noBody());
+        return send(nsid, builder.build(), writeBulkhead);
+    }
+
+    private HttpRequest.Builder newRequest(String nsid, String accessJwt, String... params) {
+        StringBuilder url = new StringBuilder(baseUrl).append("/xrpc/").append(nsid);
+        char separator = '?';
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            if (params[i + 1] == null) {
+                continue;
+            }
+            url.append(separator)
+                    .append(params[i])
+                    .append('=')
+                    .append(URLEncoder.encode(params[i + 1], StandardCharsets.UTF_8));
+            separator = '&';
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url.toString()))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json");
+        if (accessJwt != null) {
+            builder.header("Authorization", "Bearer " + accessJwt);
+        }
+        return builder;
+    }
+
+    private XrpcResponse send(String nsid, HttpRequest request, Semaphore bulkhead) throws IOException {
+        return execute(nsid, request, bulkhead, response -> {
+            try (InputStream body = response.body()) {
+                return new XrpcResponse(response.statusCode(), body.readAllBytes(), response.headers());
+            }
+        });
+    }
+
+    // 同時実行数の枠とサーキットブレーカーを通してリクエストを送る
+    // 遅延はボディの読み込み・デコードまで含めてエンドポイントごとに記録する
+    // ボディの途中で止まったサーバーに枠とスレッドを取られ続けないよう、送信から requestTimeout で読み込みを打ち切る
+    private <T> T execute(String nsid, HttpRequest request, Semaphore bulkhead, ResponseHandler<T> handler) throws IOException {
+        try {
+            if (!bulkhead.tryAcquire(bulkheadWaitMillis, TimeUnit.MILLISECONDS)) {
+                metrics.increment("xrpc_rejected");
+                throw new ServiceUnavailableException("Too many concurrent requests");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted", e);
+        }
+        try {
+            if (!breaker.tryAcquire()) {
+                metrics.increment("xrpc_rejected");
+                throw new ServiceUnavailableException("Bluesky is unavailable (circuit open)");
+            }
+            long start = System.nanoTime();
+            HttpResponse<InputStream> response;
+            try {
+                response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (IOException e) {
+                // タイムアウトや接続失敗は障害として数える
+                breaker.recordFailure();
+                metrics.recordXrpc(nsid, System.nanoTime() - start, true);
+                throw e;
+            } catch (InterruptedException e) {
+                breaker.recordFailure();
+                Thread.currentThread().interrupt();
+                throw new IOException("Request interrupted", e);
+            }
+            // 期限が来たらボディのストリームを閉じる (読み込み中のスレッドは IOException で抜ける)
+            AtomicBoolean timedOut = new AtomicBoolean();
+            long remaining = requestTimeout.toNanos() - (System.nanoTime() - start);
+            ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+                timedOut.set(true);
+                try {
+                    response.body().close();
+                } catch (IOException ignored) {
+                    // 閉じられなくても読み込み側は失敗する
+                }
+            }, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            boolean failed = response.statusCode() >= 400;
+            // ブレーカーにはボディを読み終えてから記録する (ボディのタイムアウトも障害として数える)
+            boolean outage = response.statusCode() >= 500;
+            try {
+                return handler.handle(response);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                if (timedOut.get()) {
+                    outage = true;
+                    metrics.increment("xrpc_body_timeouts");
+                    throw new HttpTimeoutException("Response body not received within " + requestTimeout.toSeconds() + "s");
+                }
+                throw e;
+            } finally {
+                deadline.cancel(false);
+                if (outage) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+                metrics.recordXrpc(nsid, System.nanoTime() - start, failed);
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+}
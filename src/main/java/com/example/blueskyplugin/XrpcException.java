@@ -0,0 +1,26 @@
+package com.example.blueskyplugin;
+
+import java.io.IOException;
+
+// 200以外のXRPCレスポンス
+public class XrpcException extends IOException {
+    private final XrpcResponse response;
+
+    public XrpcException(XrpcResponse response) {
+        super("HTTP " + response.status() + ": " + response.bodyText());
+        this.response = response;
+    }
+
+    public XrpcResponse getResponse() {
+        return response;
+    }
+
+    public int getStatus() {
+        return response.status();
+    }
+
+    // "error" フィールド (例: ExpiredToken)
+    public String getError() {
+        return response.error();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+
+// XRPCのレスポンス (ボディはバイト列のまま保持し、必要な時だけパースする)
+public record XrpcResponse(int status, byte[] body, HttpHeaders headers) {
+
+    public boolean isOk() {
+        return status == 200;
+    }
+
+    public JSONObject json() {
+        return new JSONObject(new JSONTokener(new ByteArrayInputStream(body)));
+    }
+
+    // エラーレスポンスの "error" フィールド (例: ExpiredToken)
+    public String error() {
+        try {
+            return json().optString("error", null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // エラーレスポンスの "message" フィールド (例: Record already exists)
+    public String message() {
+        try {
+            return json().optString("message", null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String bodyText() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    // 200以外なら例外を投げる
+    public XrpcResponse requireOk() throws IOException {
+        if (!isOk()) {
+            throw new XrpcException(this);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.blueskyplugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FacetBuilderTest {
+    @Test
+    void byteOffsetsCountUtf8() {
+        // a (1) é (2) 日 (3) 🎉 (サロゲートペアで4)
+        assertArrayEquals(new int[] {0, 1, 3, 6, 6, 10}, FacetBuilder.byteOffsets("aé日🎉"));
+    }
+
+    @Test
+    void byteOffsetsMatchEncodedLength() {
+        String text = "今日は🍣と🍺! café 👨‍👩‍👧 #タグ";
+        int[] offsets = FacetBuilder.byteOffsets(text);
+        for (int i = 0; i < text.length(); i = text.offsetByCodePoints(i, 1)) {
+            assertEquals(bytes(text.substring(0, i)), offsets[i]);
+        }
+        assertEquals(bytes(text), offsets[text.length()]);
+    }
+
+    @Test
+    void findsMentionAfterJapanese() {
+        String text = "こんにちは @Alice.bsky.social さん";
+        List<FacetBuilder.Span> spans = FacetBuilder.parse(text);
+        assertEquals(List.of(span(FacetBuilder.Kind.MENTION, text, "@Alice.bsky.social", "alice.bsky.social")), spans);
+        assertEquals(Set.of("alice.bsky.social"), FacetBuilder.mentionedHandles(spans));
+    }
+
+    @Test
+    void findsTagAndLinkAfterEmoji() {
+        String text = "🎉🎉 #お祭り https://example.com/a?b=1";
+        assertEquals(List.of(
+                span(FacetBuilder.Kind.TAG, text, "#お祭り", "お祭り"),
+                span(FacetBuilder.Kind.LINK, text, "https://example.com/a?b=1", "https://example.com/a?b=1")),
+                FacetBuilder.parse(text));
+    }
+
+    @Test
+    void acceptsFullWidthHash() {
+        String text = "今日は＃マイクラ";
+        assertEquals(List.of(), FacetBuilder.parse(text));
+        text = "今日は ＃マイクラ。";
+        assertEquals(List.of(span(FacetBuilder.Kind.TAG, text, "＃マイクラ", "マイクラ")), FacetBuilder.parse(text));
+    }
+
+    @Test
+    void trimsTrailingPunctuationFromUrl() {
+        assertLink("見て https://example.com/page.", "https://example.com/page");
+        assertLink("見て https://example.com/page、", "https://example.com/page");
+        assertLink("見て https://example.com/page。", "https://example.com/page");
+        assertLink("見て https://example.com/page」", "https://example.com/page");
+        assertLink("見て https://example.com/page!?", "https://example.com/page");
+    }
+
+    @Test
+    void keepsBalancedParenthesesInUrl() {
+        assertLink("(https://en.wikipedia.org/wiki/Foo_(bar))", "https://en.wikipedia.org/wiki/Foo_(bar)");
+        assertLink("(see https://example.com/a)", "https://example.com/a");
+    }
+
+    @Test
+    void ignoresNonFacets() {
+        // メールアドレス、数字だけのタグ、スキームだけのURL
+        assertEquals(List.of(), FacetBuilder.parse("mail@example.com #123 https:// @nodot"));
+    }
+
+    @Test
+    void skipsMentionsWithoutDid() {
+        String text = "@alice.bsky.social @bob.bsky.social";
+        JSONArray facets = FacetBuilder.toFacets(FacetBuilder.parse(text),
+                Map.of("bob.bsky.social", "did:plc:bob"));
+        assertEquals(1, facets.length());
+        JSONObject facet = facets.getJSONObject(0);
+        assertEquals(bytes("@alice.bsky.social "), facet.getJSONObject("index").getInt("byteStart"));
+        assertEquals(bytes(text), facet.getJSONObject("index").getInt("byteEnd"));
+        JSONObject feature = facet.getJSONArray("features").getJSONObject(0);
+        assertEquals("app.bsky.richtext.facet#mention", feature.getString("$type"));
+        assertEquals("did:plc:bob", feature.getString("did"));
+    }
+
+    // text の中の最初の match の位置でSpanを作る
+    private static FacetBuilder.Span span(FacetBuilder.Kind kind, String text, String match, String value) {
+        int start = text.indexOf(match);
+        assertTrue(start >= 0, match);
+        return new FacetBuilder.Span(kind, bytes(text.substring(0, start)),
+                bytes(text.substring(0, start + match.length())), value);
+    }
+
+    private static void assertLink(String text, String expected) {
+        assertEquals(List.of(span(FacetBuilder.Kind.LINK, text, expected, expected)), FacetBuilder.parse(text));
+    }
+
+    private static int bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
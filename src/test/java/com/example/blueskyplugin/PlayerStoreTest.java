@@ -0,0 +1,98 @@
+package com.example.blueskyplugin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerStoreTest {
+    private static final Logger LOGGER = Logger.getLogger("PlayerStoreTest");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void releaseEvictsBorrowedOfflinePlayer() throws IOException {
+        UUID playerId = UUID.randomUUID();
+        JsonSessionStore backend = new JsonSessionStore(directory, LOGGER);
+        backend.write(playerId, PlayerData.EMPTY.withLang("ja"), 0);
+        PlayerStore store = new PlayerStore(backend, LOGGER, () -> {});
+
+        assertEquals("ja", store.borrow(playerId).lang());
+        // 使っている間の変更 (トークンの更新など) は外す時に書き込まれる
+        store.update(playerId, data -> data.withLang("en"));
+        store.release(playerId);
+
+        assertFalse(store.isLoaded(playerId));
+        assertEquals("en", backend.read(playerId).data().lang());
+    }
+
+    @Test
+    void releaseKeepsPlayerUntilLastBorrowerIsDone() {
+        UUID playerId = UUID.randomUUID();
+        PlayerStore store = new PlayerStore(new JsonSessionStore(directory, LOGGER), LOGGER, () -> {});
+
+        store.borrow(playerId);
+        store.borrow(playerId);
+        store.release(playerId);
+        assertTrue(store.isLoaded(playerId));
+        store.release(playerId);
+        assertFalse(store.isLoaded(playerId));
+    }
+
+    @Test
+    void releaseKeepsOnlinePlayer() {
+        UUID online = UUID.randomUUID();
+        UUID joined = UUID.randomUUID();
+        PlayerStore store = new PlayerStore(new JsonSessionStore(directory, LOGGER), LOGGER, () -> {});
+
+        store.load(online);
+        store.borrow(online);
+        store.release(online);
+        assertTrue(store.isLoaded(online));
+
+        // 使っている間にログインした
+        store.borrow(joined);
+        store.load(joined);
+        store.release(joined);
+        assertTrue(store.isLoaded(joined));
+    }
+
+    @Test
+    void migrateLegacyKeepsExistingPlayers() throws IOException {
+        UUID existing = UUID.randomUUID();
+        UUID legacyOnly = UUID.randomUUID();
+        JsonSessionStore backend = new JsonSessionStore(directory.resolve("players"), LOGGER);
+        PlayerData current = new PlayerData(Session.of("new-access", "new-refresh", "did:plc:current"),
+                "current.bsky.social", "en", null, true);
+        backend.write(existing, current, 0);
+
+        Path legacyFile = directory.resolve("userdata.json");
+        Files.writeString(legacyFile, "{"
+                + "\"tokens\": {\"" + existing + "\": \"old-access\", \"" + legacyOnly + "\": \"legacy-access\"},"
+                + "\"refreshTokens\": {\"" + existing + "\": \"old-refresh\", \"" + legacyOnly + "\": \"legacy-refresh\"},"
+                + "\"handles\": {\"" + existing + "\": \"old.bsky.social\", \"" + legacyOnly + "\": \"legacy.bsky.social\"},"
+                + "\"lang\": {\"" + legacyOnly + "\": \"ja\"}}");
+        new PlayerStore(backend, LOGGER, () -> {}).migrateLegacy(legacyFile);
+
+        // 既に保存先にあったプレイヤーは旧形式のトークンで上書きしない
+        assertEquals(current, backend.read(existing).data());
+        PlayerData migrated = backend.read(legacyOnly).data();
+        assertEquals("legacy-access", migrated.session().accessJwt());
+        assertEquals("legacy-refresh", migrated.session().refreshJwt());
+        assertEquals("legacy.bsky.social", migrated.handle());
+        assertEquals("ja", migrated.lang());
+        assertNull(migrated.seenAt());
+        assertTrue(Files.notExists(legacyFile));
+        assertTrue(Files.exists(directory.resolve("userdata.json.migrated")));
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.blueskyplugin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostCacheTest {
+    private static final Logger LOGGER = Logger.getLogger("PostCacheTest");
+    private static final long MAX_BYTES = 200_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackSavedTimeline() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 10, "cursor", 1234);
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page);
+            assertEquals(page, cache.timeline(player));
+            assertNull(cache.timeline(UUID.randomUUID()));
+        }
+    }
+
+    @Test
+    void keepsTimelineAcrossReopen() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 10, null, 1234);
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page);
+        }
+        try (PostCache cache = open()) {
+            assertEquals(page, cache.timeline(player));
+        }
+    }
+
+    @Test
+    void sharesPostsBetweenTimelines() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 10, null, 1);
+        try (PostCache cache = open()) {
+            cache.putTimeline(first, page);
+            long size = Files.size(log());
+            cache.putTimeline(second, page);
+            // 同じ投稿は2回書かない (増えるのはタイムラインのレコードだけ)
+            assertTrue(Files.size(log()) - size < size / 2);
+            assertEquals(page, cache.timeline(second));
+        }
+    }
+
+    @Test
+    void truncatesTornTail() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 5, null, 1);
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page);
+        }
+        long size = Files.size(log());
+        // 書き込み中に落ちた時のような、長さだけ書かれたレコード
+        Files.write(log(), new byte[] {0, 0, 1, 0, 'P'}, StandardOpenOption.APPEND);
+
+        try (PostCache cache = open()) {
+            assertEquals(size, Files.size(log()));
+            assertEquals(page, cache.timeline(player));
+            // 切り詰めた後も追記できる
+            UUID other = UUID.randomUUID();
+            cache.putTimeline(other, page("b", 3, null, 2));
+            assertNotNull(cache.timeline(other));
+        }
+    }
+
+    @Test
+    void rebuildsMissingIndex() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 10, null, 1);
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page);
+        }
+        Files.delete(directory.resolve("posts.idx"));
+        try (PostCache cache = open()) {
+            assertEquals(page, cache.timeline(player));
+        }
+    }
+
+    @Test
+    void compactKeepsNewestTimelines() throws IOException {
+        List<UUID> players = new ArrayList<>();
+        try (PostCache cache = open()) {
+            for (int i = 0; i < 1000; i++) {
+                UUID player = UUID.randomUUID();
+                players.add(player);
+                cache.putTimeline(player, page("p" + i + "_", 10, null, 10_000 + i));
+            }
+            assertTrue(Files.size(log()) <= MAX_BYTES);
+            assertNotNull(cache.timeline(players.get(999)));
+            assertNull(cache.timeline(players.get(0)));
+        }
+        // 索引は新しいファイルに作って差し替えるので、一時ファイルは残らない
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(Set.of("posts.log", "posts.idx"),
+                    files.map(file -> file.getFileName().toString()).collect(Collectors.toSet()));
+        }
+        try (PostCache cache = open()) {
+            assertEquals(page("p999_", 10, null, 10_999), cache.timeline(players.get(999)));
+        }
+    }
+
+    @Test
+    void ignoresLeftoverTemporaryIndex() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 3, null, 1);
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page);
+        }
+        Path leftover = Files.createFile(directory.resolve("posts.idx.123.tmp"));
+        try (PostCache cache = open()) {
+            assertEquals(page, cache.timeline(player));
+        }
+        assertTrue(Files.notExists(leftover));
+    }
+
+    @Test
+    void skipsPostsWithoutUri() throws IOException {
+        UUID player = UUID.randomUUID();
+        TimelinePageCache.Page page = page("a", 3, null, 1);
+        List<Post> posts = new ArrayList<>(page.posts());
+        posts.add(1, new Post(null, "nouri.bsky.social", null, "本文", null));
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, new TimelinePageCache.Page(posts, null, 1));
+            assertEquals(page, cache.timeline(player));
+        }
+    }
+
+    @Test
+    void forgetsTimeline() throws IOException {
+        UUID player = UUID.randomUUID();
+        try (PostCache cache = open()) {
+            cache.putTimeline(player, page("a", 3, null, 1));
+            cache.forget(player);
+            assertNull(cache.timeline(player));
+        }
+        try (PostCache cache = open()) {
+            assertNull(cache.timeline(player));
+        }
+    }
+
+    private PostCache open() throws IOException {
+        return new PostCache(directory, MAX_BYTES, LOGGER);
+    }
+
+    private Path log() {
+        return directory.resolve("posts.log");
+    }
+
+    private static TimelinePageCache.Page page(String prefix, int count, String cursor, long fetchedAt) {
+        List<Post> posts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // 表示名の無い投稿と日本語の本文も混ぜる
+            posts.add(new Post("at://did:plc:test/app.bsky.feed.post/" + prefix + i, "user" + i + ".bsky.social",
+                    i % 2 == 0 ? null : "名前" + i, "本文 " + "x".repeat(40) + i, "2026-01-01T00:00:0" + i % 10 + "Z"));
+        }
+        return new TimelinePageCache.Page(posts, cursor, fetchedAt);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.blueskyplugin;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCoalescerTest {
+    private static final String KEY = RequestCoalescer.key("app.bsky.feed.getFeed", "feed", "at://feed");
+
+    @Test
+    void waiterRetriesWithOwnLoaderAfterCallerSpecificFailure() throws Exception {
+        Metrics metrics = new Metrics();
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>(60_000, 16, metrics, "feeds");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // 最初に頼んだプレイヤーはセッションが切れている
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> load(coalescer, () -> {
+            started.countDown();
+            release.await();
+            throw new SessionException("Not logged in");
+        }));
+        started.await();
+        AtomicInteger ownLoads = new AtomicInteger();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> load(coalescer, () -> {
+            ownLoads.incrementAndGet();
+            return "page";
+        }));
+        awaitWaiter(metrics);
+        release.countDown();
+
+        assertTrue(cause(first) instanceof SessionException);
+        assertEquals("page", second.get());
+        assertEquals(1, ownLoads.get());
+    }
+
+    @Test
+    void waiterSharesOtherFailures() throws Exception {
+        Metrics metrics = new Metrics();
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>(60_000, 16, metrics, "feeds");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> load(coalescer, () -> {
+            started.countDown();
+            release.await();
+            throw new ServiceUnavailableException("Bluesky is unavailable (circuit open)");
+        }));
+        started.await();
+        AtomicInteger ownLoads = new AtomicInteger();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> load(coalescer, () -> {
+            ownLoads.incrementAndGet();
+            return "page";
+        }));
+        awaitWaiter(metrics);
+        release.countDown();
+
+        assertTrue(cause(first) instanceof ServiceUnavailableException);
+        assertTrue(cause(second) instanceof ServiceUnavailableException);
+        assertEquals(0, ownLoads.get());
+    }
+
+    @FunctionalInterface
+    private interface BlockingLoader {
+        String load() throws IOException, InterruptedException;
+    }
+
+    private static String load(RequestCoalescer<String> coalescer, BlockingLoader loader) {
+        try {
+            return coalescer.get(KEY, () -> {
+                try {
+                    return loader.load();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }, SessionManager::isSessionError);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // 2人目が1人目の読み込みを待ち始めるまで待つ
+    private static void awaitWaiter(Metrics metrics) throws InterruptedException {
+        while (metrics.getCounters().getOrDefault("cache_hits.feeds", 0L) < 1) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable cause(CompletableFuture<String> future) throws InterruptedException {
+        try {
+            future.get();
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            return e.getCause().getCause();
+        }
+    }
+}